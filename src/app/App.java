@@ -17,7 +17,11 @@ import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -33,14 +37,24 @@ import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import canvas.KMeansQuantizer;
 import canvas.Layer;
+import canvas.MedianCutQuantizer;
+import canvas.OctreeQuantizer;
+import canvas.Quantizer;
+import canvas.ScaleFilter;
 import canvas.Spritesheet;
+import canvas.WuQuantizer;
 import io.IOUtil;
 import io.Memory;
 import myawt.GBC;
 import util.Enabler;
+import util.Journal;
 import util.StateLog;
 import util.Util;
 
@@ -103,7 +117,8 @@ public class App {
 			}
 		});
 
-		statelog = new StateLog<>(maxNumStates);
+		statelog = new StateLog<>(maxNumStates, initialMaxStateBytes, minNumStates, SaveableState::getBytesNotIn);
+		statelog.setSpiller(numStatesInHeap, this::spillState);
 
 		// panels
 		spritesheetManager = new SpritesheetManager(this);
@@ -166,7 +181,12 @@ public class App {
 
 	// State Saving
 	public static final int maxNumStates = 100;
+	public static final int minNumStates = 10; // kept even if they exceed the memory limit
+	public static final long initialMaxStateBytes = 256L << 20;
+	public static final int numStatesInHeap = 10; // older states are spilled to the journal
 	private final StateLog<SaveableState> statelog;
+	private Journal journal = null; // created when the first state is spilled
+	private boolean journalFailed = false;
 	private SaveableState transientState = null; // not saved to the log unless an edit is made; represents the initial
 													// state of a layer before edits are made
 
@@ -186,6 +206,32 @@ public class App {
 		restoreState(statelog.redo());
 	}
 
+	public int getNumStates() {
+		return statelog.size();
+	}
+
+	/**
+	 * @return the number of bytes of pixel data retained by the undo history
+	 */
+	public long getStateBytes() {
+		return statelog.getRetainedBytes();
+	}
+
+	public long getMaxStateBytes() {
+		return statelog.getMaxBytes();
+	}
+
+	/**
+	 * Sets how many bytes of pixel data the undo history may retain. The oldest states are discarded to stay within
+	 * the limit, but at least {@link #minNumStates} are kept.
+	 * 
+	 * @param bytes the limit
+	 */
+	public void setMaxStateBytes(long bytes) {
+		statelog.setMaxBytes(bytes);
+		updateEnableds();
+	}
+
 	/**
 	 * Saves the current state of the layer in the changelog. Undo can then recover the state.
 	 */
@@ -204,6 +250,26 @@ public class App {
 		updateEnableds();
 	}
 
+	private boolean spillState(SaveableState state, List<SaveableState> kept) {
+		if (journalFailed)
+			return false;
+		try {
+			if (journal == null)
+				journal = Journal.createTemp();
+			state.spill(journal, kept);
+			return true;
+		} catch (UncheckedIOException e) {
+			e.printStackTrace();
+			journalFailed = true; // keep states in the heap instead
+			String reason = e.getCause().getMessage() != null ? e.getCause().getMessage() : e.getCause().toString();
+			SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame,
+					"Could not move undo history to disk, so it will stay in memory: " + reason
+							+ "\nThe oldest undo states will be discarded sooner to stay within the memory limit.",
+					"Undo History", JOptionPane.WARNING_MESSAGE));
+			return false;
+		}
+	}
+
 	private SaveableState getState(boolean isTransient) {
 		return new SaveableState(canvasPanel.getState(), spritesheetManager.getState(), isTransient);
 	}
@@ -214,6 +280,8 @@ public class App {
 	public void quit() {
 		try {
 			Memory.memory.save();
+			if (journal != null)
+				journal.close(); // deletes its file
 			System.exit(0);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -270,6 +338,23 @@ public class App {
 	public void repaintCanvas() {
 		canvasPanel.repaint();
 		spritesheetManager.repaintPreview();
+		clearDamage();
+	}
+
+	/**
+	 * Repaints only what visually changed since the last repaint, e.g. the pixels touched by a brush stroke. See
+	 * {@link CanvasPanel#repaintChanges()}.
+	 */
+	public void repaintChanges() {
+		canvasPanel.repaintChanges();
+		spritesheetManager.repaintPreviewChanges();
+		clearDamage();
+	}
+
+	private void clearDamage() {
+		canvasPanel.clearDamage();
+		if (spritesheetManager.getCurrentSheet() != null)
+			spritesheetManager.getCurrentSheet().clearDamage();
 	}
 
 	private void makeNewSpritesheet(ActionEvent e) {
@@ -394,6 +479,8 @@ public class App {
 			});
 			var reduceNColorsButton = new JMenuItem("Reduce # Colors");
 			reduceNColorsButton.addActionListener(this::reduceNColorsAction);
+			var undoLimitButton = new JMenuItem("Undo Memory Limit...");
+			undoLimitButton.addActionListener(this::undoLimitAction);
 
 			editMenu.add(rotateCCWButton);
 			editMenu.add(rotateCWButton);
@@ -401,6 +488,8 @@ public class App {
 			editMenu.add(reflectUDButton);
 			editMenu.addSeparator();
 			editMenu.add(reduceNColorsButton);
+			editMenu.addSeparator();
+			editMenu.add(undoLimitButton);
 
 			// View Menu
 			JMenu viewMenu = new JMenu("View");
@@ -488,6 +577,24 @@ public class App {
 			}
 		}
 
+		private void undoLimitAction(ActionEvent e) {
+			String input = JOptionPane.showInputDialog(frame, "Memory available to undo history (MB):",
+					getMaxStateBytes() >> 20);
+			if (input == null)
+				return;
+			long mb;
+			try {
+				mb = Long.parseLong(input.trim());
+			} catch (NumberFormatException ex) {
+				mb = -1;
+			}
+			if (mb <= 0 || mb > Long.MAX_VALUE >> 20) {
+				JOptionPane.showMessageDialog(frame, "Not a positive whole number: " + input);
+				return;
+			}
+			setMaxStateBytes(mb << 20);
+		}
+
 		private void exportAction(ActionEvent e) {
 			var ep = new ExportPanel();
 			int result = JOptionPane.showConfirmDialog(null, ep, "Export", JOptionPane.OK_CANCEL_OPTION,
@@ -521,16 +628,59 @@ public class App {
 				scaleYField = new JTextField("1", 2);
 				skipBlank = new JCheckBox("Skip blank sprites");
 				skipBlank.setSelected(true);
+				sharePalette = new JCheckBox("One palette for all frames");
+				sharePalette.setSelected(true);
+
+				var group = new ButtonGroup();
+				group.add(wuButton);
+				group.add(medianCutButton);
+				group.add(octreeButton);
+				group.add(kMeansButton);
+				group.add(neuQuantButton);
+				wuButton.setSelected(true);
 
 				GBC.addComp(this::add, 0, 0, new JLabel("Scale x:"), new GBC().anchor(GBC.EAST));
 				GBC.addComp(this::add, 1, 0, scaleXField, new GBC().anchor(GBC.WEST));
 				GBC.addComp(this::add, 0, 1, new JLabel("Scale y:"), new GBC().anchor(GBC.EAST));
 				GBC.addComp(this::add, 1, 1, scaleYField, new GBC().anchor(GBC.WEST));
 				GBC.addComp(this::add, 0, 2, skipBlank, new GBC().dim(2, 1));
+				GBC.addComp(this::add, 0, 3, sharePalette, new GBC().dim(2, 1));
+
+				var paletteGBC = new GBC().anchor(GBC.WEST).insets(0, pad, 0, 0);
+				GBC.addComp(this::add, 2, 0, new JLabel("Palette:"), paletteGBC);
+				GBC.addComp(this::add, 2, 1, wuButton, paletteGBC);
+				GBC.addComp(this::add, 2, 2, medianCutButton, paletteGBC);
+				GBC.addComp(this::add, 2, 3, octreeButton, paletteGBC);
+				GBC.addComp(this::add, 2, 4, kMeansButton, paletteGBC);
+				GBC.addComp(this::add, 2, 5, neuQuantButton, paletteGBC);
+
+				GBC.addComp(this::add, 3, 0, filterPanel,
+						new GBC().anchor(GBC.NORTH).insets(0, pad, 0, 0).dim(1, 6));
 			}
 
 			private final JTextField scaleXField, scaleYField;
-			private final JCheckBox skipBlank;
+			private final JCheckBox skipBlank, sharePalette;
+			private final JRadioButton wuButton = new JRadioButton("Wu");
+			private final JRadioButton medianCutButton = new JRadioButton("Median cut");
+			private final JRadioButton octreeButton = new JRadioButton("Octree");
+			private final JRadioButton kMeansButton = new JRadioButton("K-means");
+			private final JRadioButton neuQuantButton = new JRadioButton("NeuQuant");
+			private final ScaleFilterPanel filterPanel = new ScaleFilterPanel();
+
+			/**
+			 * @return the quantizer chosen by the user, or null for the encoder's own NeuQuant
+			 */
+			private Quantizer getQuantizer() {
+				if (wuButton.isSelected())
+					return new WuQuantizer();
+				if (medianCutButton.isSelected())
+					return new MedianCutQuantizer();
+				if (octreeButton.isSelected())
+					return new OctreeQuantizer();
+				if (kMeansButton.isSelected())
+					return new KMeansQuantizer(false, 0);
+				return null;
+			}
 
 			/**
 			 * Exports the spritesheet as an animated gif according to the specifications given by the user
@@ -542,18 +692,61 @@ public class App {
 				if (result == JFileChooser.APPROVE_OPTION) {
 					float sx = Float.parseFloat(scaleXField.getText());
 					float sy = Float.parseFloat(scaleYField.getText());
+					ScaleFilter filter = filterPanel.getFilter();
 
 					File file = fileChooser.getSelectedFile();
 					var ss = spritesheetManager.getCurrentSheet();
 
-					ArrayList<BufferedImage> images = new ArrayList<>();
+					// copy the sprites now, so that they can be scaled and encoded while the user keeps editing
+					List<Supplier<BufferedImage>> frames = new ArrayList<>();
 					for (Layer sprite : ss) {
-						if (!skipBlank.isSelected() || sprite.hasVisibleContent())
-							images.add(sprite.scaled(sx, sy).getImage());
+						if (!skipBlank.isSelected() || sprite.hasVisibleContent()) {
+							Layer copy = sprite.copied();
+							frames.add(() -> copy.scaled(sx, sy, filter).getImage());
+						}
 					}
-					IOUtil.saveImagesAsGIF(images, file, spritesheetManager.getDelay());
+					saveGIFInBackground(frames, file);
 				}
 			}
+
+			/**
+			 * Encodes and saves the given frames on a background thread, showing progress in a dialog that allows
+			 * cancelling.
+			 * 
+			 * @param frames supplies each frame
+			 * @param file   the file
+			 */
+			private void saveGIFInBackground(List<Supplier<BufferedImage>> frames, File file) {
+				boolean global = sharePalette.isSelected();
+				// with one palette, each frame is analyzed before any is written
+				int steps = global ? 2 * frames.size() : frames.size();
+				var monitor = new ProgressMonitor(frame, "Exporting " + file.getName(), null, 0, steps);
+				monitor.setMillisToDecideToPopup(200);
+				int delay = spritesheetManager.getDelay();
+				Quantizer quantizer = getQuantizer();
+				new SwingWorker<Boolean, Void>() {
+					@Override
+					protected Boolean doInBackground() throws IOException {
+						return IOUtil.saveFramesAsGIF(frames, file, delay, quantizer, global,
+								n -> SwingUtilities.invokeLater(() -> monitor.setProgress(n)), monitor::isCanceled);
+					}
+
+					@Override
+					protected void done() {
+						monitor.close();
+						try {
+							get();
+						} catch (ExecutionException e) {
+							e.printStackTrace();
+							Throwable cause = e.getCause();
+							String reason = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+							JOptionPane.showMessageDialog(frame, "Could not save to file: " + file + "\n" + reason);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}.execute();
+			}
 		}
 
 		/**
@@ -584,7 +777,7 @@ public class App {
 
 					@Override
 					public void paintComponent(Graphics g) {
-						previewLayer.renderAt((Graphics2D) g, new Point(), getSize(), Layer.RENDER_TRANSPARENT);
+						previewLayer.renderAt((Graphics2D) g, new Point(), getSize(), Layer.RENDER_TILES);
 					}
 				};
 				previewPanel.setPreferredSize(new Dimension(100, 100));
@@ -618,6 +811,7 @@ public class App {
 				GBC.addComp(this::add, 0, 0, previewBox, new GBC().fill(GBC.BOTH).weight(1, 1));
 				GBC.addComp(this::add, 0, 1, scaleBox, new GBC().fill(GBC.BOTH));
 				GBC.addComp(this::add, 1, 0, exportBox, new GBC().fill(GBC.BOTH).dim(1, 2));
+				GBC.addComp(this::add, 2, 0, filterPanel, new GBC().anchor(GBC.NORTH).insets(0, pad, 0, 0).dim(1, 2));
 
 				// determine which option is initially clicked
 				boolean selectSelection = selectionOption.isEnabled();
@@ -634,6 +828,7 @@ public class App {
 			private Layer previewLayer;
 			private final JLabel heightLabel = new JLabel(), widthLabel = new JLabel();
 			private final JTextField scaleXField, scaleYField;
+			private final ScaleFilterPanel filterPanel = new ScaleFilterPanel();
 
 			public void doExport() {
 				int result = fileChooser.showSaveDialog(frame);
@@ -642,7 +837,7 @@ public class App {
 					File file = fileChooser.getSelectedFile();
 					float sx = Float.parseFloat(scaleXField.getText());
 					float sy = Float.parseFloat(scaleYField.getText());
-					IOUtil.saveLayerAs(previewLayer.scaled(sx, sy), file);
+					IOUtil.saveLayerAs(previewLayer.scaled(sx, sy, filterPanel.getFilter()), file);
 				}
 			}
 
@@ -670,6 +865,39 @@ public class App {
 
 		}
 
+		/**
+		 * A column of buttons for choosing the filter that exported images are scaled with.
+		 */
+		private class ScaleFilterPanel extends JPanel {
+			private static final long serialVersionUID = 5118724180655362781L;
+
+			public ScaleFilterPanel() {
+				super(new GridBagLayout());
+
+				var group = new ButtonGroup();
+				GBC.addComp(this::add, 0, 0, new JLabel("Filter:"), new GBC().anchor(GBC.WEST));
+				for (int i = 0; i < filters.length; i++) {
+					buttons[i] = new JRadioButton(filters[i].getName());
+					group.add(buttons[i]);
+					GBC.addComp(this::add, 0, i + 1, buttons[i], new GBC().anchor(GBC.WEST));
+				}
+				buttons[0].setSelected(true);
+			}
+
+			private final ScaleFilter[] filters = ScaleFilter.values();
+			private final JRadioButton[] buttons = new JRadioButton[filters.length];
+
+			/**
+			 * @return the filter chosen by the user
+			 */
+			public ScaleFilter getFilter() {
+				for (int i = 0; i < filters.length; i++)
+					if (buttons[i].isSelected())
+						return filters[i];
+				return ScaleFilter.NEAREST;
+			}
+		}
+
 		/**
 		 * Panel handling the reduction of number of colors in the image.
 		 */
@@ -688,6 +916,9 @@ public class App {
 				group = new ButtonGroup();
 				group.add(rgbButton);
 				group.add(hsbButton);
+				group.add(medianCutButton);
+				group.add(octreeButton);
+				group.add(wuButton);
 				hsbButton.setSelected(true);
 
 				GBC.addComp(this::add, 0, 0, new JLabel("Number of colors:"), new GBC().anchor(GBC.EAST).dim(1, 3));
@@ -700,20 +931,39 @@ public class App {
 				GBC.addComp(this::add, 3, 0, new JLabel("Method to reduce:"), new GBC().anchor(GBC.SOUTHWEST));
 				GBC.addComp(this::add, 3, 1, rgbButton, new GBC().anchor(GBC.WEST));
 				GBC.addComp(this::add, 3, 2, hsbButton, new GBC().anchor(GBC.WEST));
+				GBC.addComp(this::add, 3, 3, medianCutButton, new GBC().anchor(GBC.WEST));
+				GBC.addComp(this::add, 3, 4, octreeButton, new GBC().anchor(GBC.WEST));
+				GBC.addComp(this::add, 3, 5, wuButton, new GBC().anchor(GBC.WEST));
 			}
 
 			private final JTextField inputField = new JTextField(3);
 			private final JRadioButton selectionOnlyButton = new JRadioButton("Selection only");
 			private final JRadioButton entireSpriteButton = new JRadioButton("Entire sprite");
-			private final JRadioButton rgbButton = new JRadioButton("RGB");
-			private final JRadioButton hsbButton = new JRadioButton("HSB");
+			private final JRadioButton rgbButton = new JRadioButton("K-means (RGB)");
+			private final JRadioButton hsbButton = new JRadioButton("K-means (HSB)");
+			private final JRadioButton medianCutButton = new JRadioButton("Median cut");
+			private final JRadioButton octreeButton = new JRadioButton("Octree");
+			private final JRadioButton wuButton = new JRadioButton("Wu");
+
+			/**
+			 * @return the quantizer chosen by the user
+			 */
+			private Quantizer getQuantizer() {
+				if (medianCutButton.isSelected())
+					return new MedianCutQuantizer();
+				if (octreeButton.isSelected())
+					return new OctreeQuantizer();
+				if (wuButton.isSelected())
+					return new WuQuantizer();
+				return new KMeansQuantizer(hsbButton.isSelected(), 0);
+			}
 
 			public void doReduce() {
 				if (selectionOnlyButton.isSelected())
-					Layer.reduceNColors(Integer.parseInt(inputField.getText()), rgbButton.isSelected(),
+					Layer.reduceNColors(Integer.parseInt(inputField.getText()), getQuantizer(),
 							canvasPanel.getSelection());
 				else
-					Layer.reduceNColors(Integer.parseInt(inputField.getText()), rgbButton.isSelected(),
+					Layer.reduceNColors(Integer.parseInt(inputField.getText()), getQuantizer(),
 							canvasPanel.getLayers(false));
 				saveState();
 				repaintCanvas();
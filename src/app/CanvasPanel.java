@@ -1,20 +1,28 @@
 package app;
 
+import java.awt.AlphaComposite;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import javax.swing.JPanel;
 
 import canvas.BitMask;
 import canvas.Layer;
-import canvas.PixelMask;
+import canvas.RegionMask;
+import canvas.RunMask;
+import canvas.TileSnapshot;
+import util.Journal;
 import util.Util;
 
 public class CanvasPanel extends JPanel {
@@ -42,6 +50,14 @@ public class CanvasPanel extends JPanel {
 
 	private final HashSet<Renderable> renderables = new HashSet<>(); // things drawn on top, like selection outlines
 
+	// cached image of the background and the layers below the active layer; see getComposite()
+	private transient BufferedImage composite = null;
+	private transient CompositeKey compositeKey = null;
+
+	// what was last painted, so that repaintChanges() knows what needs repainting
+	private transient Scene paintedScene = null;
+	private final HashMap<Renderable, Rectangle> paintedRenderables = new HashMap<>(); // values are bounds or null
+
 	// methods
 
 	/**
@@ -52,10 +68,10 @@ public class CanvasPanel extends JPanel {
 	 * 
 	 * @param mask mask specifying desired selection
 	 */
-	public void select(PixelMask mask) {
+	public void select(RegionMask mask) {
 		Layer top = getTopLayer(true);
 		if (mask == null)
-			mask = new PixelMask(top.getSize()).invert();
+			mask = RunMask.rectangle(top.getWidth(), top.getHeight(), new Rectangle(top.getSize()));
 
 		boolean hadSelection = hasSelection();
 
@@ -71,10 +87,19 @@ public class CanvasPanel extends JPanel {
 		else
 			newSelection = new Layer(top.getWidth(), top.getHeight());
 
-		// transfer selected region rgb values to selection layer
-		mask.doAction(new Point(), p -> {
-			newSelection.getImage().setRGB(p.x - newSelOffset.x, p.y - newSelOffset.y, top.getRGB(p));
-			top.setPixel(p, Layer.ERASE_COLOR);
+		// transfer selected region rgb values to selection layer, a run at a time
+		int eraseRGB = Layer.ERASE_COLOR.getRGB();
+		mask.doRuns((y, x0, x1) -> {
+			x0 = Math.max(x0, 0);
+			x1 = Math.min(x1, top.getWidth());
+			if (y >= top.getHeight() || x0 >= x1)
+				return;
+			int src = top.getOffset() + y * top.getStride() + x0;
+			int dst = newSelection.getOffset() + (y - newSelOffset.y) * newSelection.getStride() + x0 - newSelOffset.x;
+			System.arraycopy(top.getData(), src, newSelection.getData(), dst, x1 - x0);
+			Arrays.fill(top.getData(), src, src + x1 - x0, eraseRGB);
+			newSelection.markModified(x0 - newSelOffset.x, y - newSelOffset.y, x1 - x0, 1);
+			top.markModified(x0, y, x1 - x0, 1);
 		});
 		if (hadSelection) // draw previous selection on top
 			newSelection.drawImage(selection.getImage(),
@@ -136,11 +161,11 @@ public class CanvasPanel extends JPanel {
 
 	// copy and pasting
 
-	private BufferedImage clipboard;
+	private TileSnapshot clipboard;
 	private Point clipboardPos = new Point();
 
 	public void copy() {
-		clipboard = Util.deepCopy(getTopLayer().getImage());
+		clipboard = getTopLayer().snapshot();
 		clipboardPos.setLocation(selectionLoc);
 	}
 
@@ -154,9 +179,10 @@ public class CanvasPanel extends JPanel {
 
 	public void paste() {
 		if (hasSelection())
-			selection.drawImage(clipboard, getPointOnLayer(Util.difference(clipboardPos, selectionLoc), true, true));
+			selection.drawImage(clipboard.toLayer().getImage(),
+					getPointOnLayer(Util.difference(clipboardPos, selectionLoc), true, true));
 		else {
-			selection = new Layer(clipboard);
+			selection = clipboard.toLayer();
 			selectionLoc.setLocation(clipboardPos);
 		}
 	}
@@ -312,15 +338,16 @@ public class CanvasPanel extends JPanel {
 		var loc = new Point(); // draw at 0,0 in panel
 		var size = getSize();
 
-		// render all layers, bottom to top
+		// render the cached composite of everything below the active layer, then the active layer
 		var tf = getTransform();
-		layers.get(0).renderAt(g2, tf, renderStyle);
-		for (int i = 1; i < layers.size(); i++)
-			layers.get(i).renderAt(g2, tf, Layer.RENDER_TRANSPARENT);
+		var below = hasSelection() ? layers : layers.subList(0, layers.size() - 1);
+		g2.drawImage(getComposite(below, tf, g2.getTransform().getScaleX()), 0, 0, size.width, size.height, null);
 		if (hasSelection()) {
 			var stf = getSelectionTransform();
 			selection.renderAt(g2, stf, Layer.RENDER_TRANSPARENT);
 			BitMask.renderOutline(g2, selection, stf, Constants.selectionOutline);
+		} else {
+			getTopLayer().renderAt(g2, tf, Layer.RENDER_TRANSPARENT);
 		}
 
 		// draw box around bottom layer, which determines transformation of other layers
@@ -328,6 +355,131 @@ public class CanvasPanel extends JPanel {
 
 		for (var r : renderables)
 			r.renderAt(g2, tf);
+
+		paintedScene = getScene();
+		paintedRenderables.clear();
+		for (var r : renderables)
+			paintedRenderables.put(r, r.getBounds(tf));
+	}
+
+	/**
+	 * Everything that determines what the composite of the given layers looks like.
+	 */
+	private record CompositeKey(List<Layer> layers, List<Long> versions, Dimension size, int renderStyle,
+			double scale) {
+	}
+
+	/**
+	 * Returns an image of the background and the given layers, as they are drawn on this panel. The image is cached
+	 * and only redrawn when one of the layers is modified or the panel's size or render style changes, so that
+	 * repainting while editing the top layer does not redraw the layers beneath it.
+	 * 
+	 * @param below the layers, bottom to top, not including the active layer
+	 * @param tf    transform from layer pixels to this panel
+	 * @param scale scale from this panel's coordinates to device pixels
+	 * @return the image, which has the size of this panel times scale
+	 */
+	private BufferedImage getComposite(List<Layer> below, AffineTransform tf, double scale) {
+		// each sprite of a spritesheet has a version of its own, so editing one leaves the others below it cached
+		var versions = new ArrayList<Long>(below.size());
+		for (var l : below)
+			versions.add(l.getVersion());
+		var key = new CompositeKey(List.copyOf(below), versions, getSize(), renderStyle, scale);
+		if (key.equals(compositeKey))
+			return composite;
+
+		var size = getSize();
+		int w = Math.max(1, (int) Math.ceil(size.width * scale)), h = Math.max(1, (int) Math.ceil(size.height * scale));
+		if (composite == null || composite.getWidth() != w || composite.getHeight() != h)
+			composite = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+
+		var g = composite.createGraphics();
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(0, 0, w, h);
+		g.setComposite(AlphaComposite.SrcOver);
+		g.scale(scale, scale);
+		layers.get(0).renderBackground(g, tf, renderStyle);
+		for (var l : below)
+			l.renderAt(g, tf, Layer.RENDER_TRANSPARENT);
+		g.dispose();
+
+		compositeKey = key;
+		return composite;
+	}
+
+	/**
+	 * Everything other than layer pixels and renderables that determines what the canvas looks like.
+	 */
+	private record Scene(List<Layer> layers, Layer selection, Point selectionLoc, Dimension size, int renderStyle) {
+	}
+
+	private Scene getScene() {
+		return new Scene(List.copyOf(layers), selection, new Point(selectionLoc), getSize(), renderStyle);
+	}
+
+	/**
+	 * Repaints only the parts of the canvas that changed since it was last painted: the damaged regions of the layers
+	 * (see {@link Layer#getDamage()}) and the old and new bounds of the renderables. Falls back to repainting
+	 * everything if anything else changed, e.g. the layers or the selection location.
+	 */
+	public void repaintChanges() {
+		if (layers.isEmpty() || !getScene().equals(paintedScene)) {
+			repaint();
+			return;
+		}
+
+		var tf = getTransform();
+		Rectangle region = null;
+		for (var l : layers)
+			region = union(region, l.getDamage(), tf);
+		if (hasSelection())
+			region = union(region, selection.getDamage(), getSelectionTransform());
+
+		for (var entry : paintedRenderables.entrySet()) {
+			if (entry.getValue() == null) {
+				repaint();
+				return;
+			}
+			region = union(region, entry.getValue(), null);
+		}
+		for (var r : renderables) {
+			var bounds = r.getBounds(tf);
+			if (bounds == null) {
+				repaint();
+				return;
+			}
+			region = union(region, bounds, null);
+		}
+
+		if (region != null)
+			repaint(region);
+	}
+
+	/**
+	 * Returns the union of the given region with the given rectangle, after transforming the rectangle and growing it
+	 * slightly to cover antialiasing and outlines.
+	 * 
+	 * @param region a region in this panel, or null
+	 * @param r      a rectangle, or null
+	 * @param tf     transform from the rectangle's frame to this panel's, or null if already in this panel's frame
+	 * @return the union, or null if both are null
+	 */
+	private static Rectangle union(Rectangle region, Rectangle r, AffineTransform tf) {
+		if (r == null)
+			return region;
+		r = tf == null ? new Rectangle(r) : tf.createTransformedShape(r).getBounds();
+		r.grow(2, 2);
+		return region == null ? r : region.union(r);
+	}
+
+	/**
+	 * Forgets the damage recorded on the layers and selection. See {@link Layer#clearDamage()}.
+	 */
+	public void clearDamage() {
+		for (var l : layers)
+			l.clearDamage();
+		if (hasSelection())
+			selection.clearDamage();
 	}
 
 	/**
@@ -376,17 +528,16 @@ public class CanvasPanel extends JPanel {
 		layers.clear();
 		for (int i = 0; i < state.layers().length; i++) {
 			layers.add(state.layers()[i]);
-			state.layers()[i].setImage(state.images()[i]);
+			state.layers()[i].restore(state.images()[i]);
 		}
-		selection = state.hadSelection() ? new Layer(state.selection()) : null;
+		selection = state.hadSelection() ? state.selection().toLayer() : null;
 		selectionLoc.setLocation(state.selectionLoc());
 		repaint();
 	}
 
 	public State getState() {
 		boolean hadSelection = hasSelection();
-		return new State(getLayers(), getImageCopies(), hadSelection,
-				hadSelection ? Util.deepCopy(selection.getImage()) : null,
+		return new State(getLayers(), getSnapshots(), hadSelection, hadSelection ? selection.snapshot() : null,
 				hadSelection ? new Point(selectionLoc) : new Point());
 	}
 
@@ -400,18 +551,59 @@ public class CanvasPanel extends JPanel {
 	}
 
 	/**
-	 * Creates and returns an array containing deep copies of the layer images.
+	 * Creates and returns an array containing snapshots of the layers.
 	 * 
 	 * @return the array
 	 */
-	private BufferedImage[] getImageCopies() {
-		BufferedImage[] stateImages = new BufferedImage[layers.size()];
+	private TileSnapshot[] getSnapshots() {
+		TileSnapshot[] snapshots = new TileSnapshot[layers.size()];
 		for (int i = 0; i < layers.size(); i++)
-			stateImages[i] = Util.deepCopy(layers.get(i).getImage());
-		return stateImages;
+			snapshots[i] = layers.get(i).snapshot();
+		return snapshots;
 	}
 
-	public record State(Layer[] layers, BufferedImage[] images, boolean hadSelection, BufferedImage selection,
+	public record State(Layer[] layers, TileSnapshot[] images, boolean hadSelection, TileSnapshot selection,
 			Point selectionLoc) {
+
+		/**
+		 * Returns the number of bytes of pixel data held by this state that are not shared with the given state.
+		 * 
+		 * @param previous another state, or null
+		 * @return the number of bytes
+		 */
+		public long getBytesNotIn(State previous) {
+			long bytes = 0;
+			for (int i = 0; i < layers.length; i++)
+				bytes += images[i].getBytesNotIn(previous == null ? null : previous.getSnapshot(layers[i]));
+			if (hadSelection)
+				bytes += selection.getBytesNotIn(previous == null ? null : previous.selection());
+			return bytes;
+		}
+
+		/**
+		 * Moves the pixel data of this state to the given journal, except for tiles shared with the given states.
+		 * 
+		 * @param journal the journal
+		 * @param kept    states that stay in the heap
+		 */
+		public void spill(Journal journal, List<State> kept) {
+			var keptSnapshots = new ArrayList<TileSnapshot>();
+			for (var state : kept) {
+				keptSnapshots.addAll(Arrays.asList(state.images()));
+				if (state.hadSelection())
+					keptSnapshots.add(state.selection());
+			}
+			for (var image : images)
+				image.spill(journal, keptSnapshots);
+			if (hadSelection)
+				selection.spill(journal, keptSnapshots);
+		}
+
+		private TileSnapshot getSnapshot(Layer l) {
+			for (int i = 0; i < layers.length; i++)
+				if (layers[i] == l)
+					return images[i];
+			return null;
+		}
 	}
 }
@@ -1,10 +1,22 @@
 package app;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 
 public interface Renderable {
 
 	void renderAt(Graphics2D g, AffineTransform tf);
 
+	/**
+	 * Returns the region that {@link #renderAt(Graphics2D, AffineTransform)} would currently draw in. Renderables that
+	 * do not know their bounds cause the whole canvas to be repainted whenever they might have changed.
+	 * 
+	 * @param tf the transform that would be passed to {@link #renderAt(Graphics2D, AffineTransform)}
+	 * @return the region, or null if unknown
+	 */
+	default Rectangle getBounds(AffineTransform tf) {
+		return null;
+	}
+
 }
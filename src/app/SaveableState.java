@@ -1,9 +1,33 @@
 package app;
 
+import java.util.List;
+
+import util.Journal;
+
 public record SaveableState(CanvasPanel.State canvasState, SpritesheetManager.State ssmState, boolean isTransient) {
 
 	public SaveableState(CanvasPanel.State canvasState, SpritesheetManager.State ssmState) {
 		this(canvasState, ssmState, false);
 	}
 
+	/**
+	 * Returns the number of bytes held by this state that are not shared with the given state.
+	 * 
+	 * @param previous another state, or null
+	 * @return the number of bytes
+	 */
+	public long getBytesNotIn(SaveableState previous) {
+		return canvasState.getBytesNotIn(previous == null ? null : previous.canvasState());
+	}
+
+	/**
+	 * Moves the pixel data of this state to the given journal, except for whatever is shared with the given states.
+	 * 
+	 * @param journal the journal
+	 * @param kept    states that stay in the heap
+	 */
+	public void spill(Journal journal, List<SaveableState> kept) {
+		canvasState.spill(journal, kept.stream().map(SaveableState::canvasState).toList());
+	}
+
 }
\ No newline at end of file
@@ -246,6 +246,22 @@ public class SpritesheetManager extends JPanel {
 		previewPanel.repaint();
 	}
 
+	/**
+	 * Repaints the part of the preview showing pixels of the current spritesheet that were modified since its damage
+	 * was last cleared. See {@link Layer#getDamage()}.
+	 */
+	public void repaintPreviewChanges() {
+		if (currentSheet == null)
+			return;
+		var damage = currentSheet.getDamage();
+		if (damage == null)
+			return;
+		var tf = currentSheet.getTransform(new Point(), previewPanel.getSize());
+		var region = tf.createTransformedShape(damage).getBounds();
+		region.grow(1, 1);
+		previewPanel.repaint(region);
+	}
+
 	private class PreviewPanel extends JPanel implements MouseListener, SizeLockable {
 		private static final long serialVersionUID = 8611113602166572032L;
 
@@ -268,7 +284,7 @@ public class SpritesheetManager extends JPanel {
 			Point loc = new Point();
 
 			// render sheet
-			currentSheet.renderAt(g2, loc, size, Layer.RENDER_WHITE);
+			currentSheet.renderAt(g2, loc, size, Layer.RENDER_TILES);
 			currentSheet.renderSpriteHighlight(g2, loc, size, highlightColor);
 			currentSheet.drawBoundingBox(g2, loc, size);
 		}
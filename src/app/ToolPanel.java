@@ -135,6 +135,8 @@ public class ToolPanel extends JPanel implements MouseListener, MouseMotionListe
 		// display for which pixel is selected
 		pixelCoordDisplay = new JLabel();
 		updatePixelCoordDisplay(null);
+		historyDisplay = new JLabel();
+		updateHistoryDisplay();
 
 		// add panels
 		GBC.addComp(this::add, 0, 0, sliderPanel,
@@ -144,7 +146,8 @@ public class ToolPanel extends JPanel implements MouseListener, MouseMotionListe
 		GBC.addComp(this::add, 0, 2, toolButtonPanel,
 				new GBC().insets(hpad, pad, pad, pad).fill(GBC.HORIZONTAL).anchor(GBC.NORTH).weight(0, 1));
 		GBC.addComp(this::add, 0, 3, pixelCoordDisplay,
-				new GBC().insets(hpad, pad, pad, pad).fill(GBC.HORIZONTAL).anchor(GBC.SOUTH).weight(0, 1));
+				new GBC().insets(hpad, pad, 0, pad).fill(GBC.HORIZONTAL).anchor(GBC.SOUTH).weight(0, 1));
+		GBC.addComp(this::add, 0, 4, historyDisplay, new GBC().insets(0, pad, pad, pad).fill(GBC.HORIZONTAL));
 		app.lockSizeAfterPack(() -> sliderPanel.setPreferredSize(sliderPanel.getSize()));
 
 		// initial tool
@@ -181,6 +184,7 @@ public class ToolPanel extends JPanel implements MouseListener, MouseMotionListe
 	private final JLabel strengthText = new JLabel("Alpha:");
 	private final JLabel sizeText = new JLabel("Diameter:");
 	private final JLabel pixelCoordDisplay;
+	private final JLabel historyDisplay;
 
 	private final Enabler enabler = new Enabler();
 
@@ -201,6 +205,11 @@ public class ToolPanel extends JPanel implements MouseListener, MouseMotionListe
 			pixelCoordDisplay.setText("Pixel coordinates: (%d, %d)".formatted(pixel.x + 1, pixel.y + 1));
 	}
 
+	private void updateHistoryDisplay() {
+		historyDisplay.setText("Undo history: %d states, %.1f/%d MB".formatted(app.getNumStates(),
+				app.getStateBytes() / (double) (1 << 20), app.getMaxStateBytes() >> 20));
+	}
+
 	// Tool stuff
 
 	private Tool.ToolParams getToolParams(MouseEvent e) {
@@ -233,10 +242,10 @@ public class ToolPanel extends JPanel implements MouseListener, MouseMotionListe
 			return false;
 		switch (result.command()) {
 		case Tool.REPAINT:
-			app.repaintCanvas();
+			app.repaintChanges();
 			break;
 		case Tool.REPAINT_AND_SAVE:
-			app.repaintCanvas();
+			app.repaintChanges();
 		case Tool.SAVE_STATE:
 			app.saveState();
 		case Tool.DO_NOTHING:
@@ -395,6 +404,7 @@ public class ToolPanel extends JPanel implements MouseListener, MouseMotionListe
 
 	public void updateEnableds() {
 		enabler.updateEnableds();
+		updateHistoryDisplay();
 	}
 
 	public void setStrength(int str) {
@@ -5,9 +5,7 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.AffineTransform;
-
-import myawt.Line;
-import util.XorSet;
+import java.awt.geom.Path2D;
 
 public interface BitMask {
 
@@ -25,6 +23,16 @@ public interface BitMask {
 		return new Dimension(getWidth(), getHeight());
 	}
 
+	/**
+	 * Returns a number that changes whenever the mask changes, so that things computed from the mask (like its outline)
+	 * can be cached. Masks that never change may return a constant.
+	 * 
+	 * @return the version, or a negative number if changes are not tracked
+	 */
+	default long getVersion() {
+		return -1;
+	}
+
 	/**
 	 * Renders an outline of the given bitmask in the given color.
 	 * 
@@ -34,20 +42,20 @@ public interface BitMask {
 	 * @param c  color of outline
 	 */
 	public static void renderOutline(Graphics2D g, BitMask b, AffineTransform tf, Color c) {
-		XorSet<Line> lines = new XorSet<>();
-		for (int i = 0; i < b.getWidth(); i++) {
-			for (int j = 0; j < b.getHeight(); j++) {
-				if (b.get(i, j)) {
-					lines.add(new Line(i, j, i + 1, j));
-					lines.add(new Line(i + 1, j, i + 1, j + 1));
-					lines.add(new Line(i, j, i, j + 1));
-					lines.add(new Line(i, j + 1, i + 1, j + 1));
-				}
-			}
-		}
 		g.setColor(c);
-		for (var line : lines)
-			g.draw(tf.createTransformedShape(line));
+		g.draw(tf.createTransformedShape(getOutline(b)));
+	}
+
+	/**
+	 * Returns the outline of the given bitmask: the edges between pixels that are in the mask and pixels that are not,
+	 * including the mask's boundary. Collinear edges are merged into single segments. Outlines of masks that track
+	 * their version are cached until the mask changes.
+	 * 
+	 * @param b a bitmask
+	 * @return the outline, in bitmask space, which must not be modified
+	 */
+	public static Path2D getOutline(BitMask b) {
+		return Outline.of(b);
 	}
 
 }
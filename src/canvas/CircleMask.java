@@ -1,22 +1,89 @@
 package canvas;
 
+import java.util.HashMap;
+
+/**
+ * A disc of pixels: those whose distance from the center pixel is at most the radius. The disc is stored as a table
+ * of row spans, so that iterating over it does no work outside the disc.
+ */
 public class CircleMask implements BitMask {
 
+	// discs already computed, by radius
+	private static final HashMap<Double, CircleMask> discs = new HashMap<>();
+
+	/**
+	 * Returns the disc of the given radius, as used by {@link Layer#doThingInCircle(java.awt.Point, double,
+	 * Layer.ThingDoer)}. Discs are cached, so the same instance is returned for the same radius.
+	 * 
+	 * @param radius the radius (inclusive)
+	 * @return the disc
+	 */
+	public static CircleMask ofRadius(double radius) {
+		synchronized (discs) {
+			return discs.computeIfAbsent(radius, CircleMask::new);
+		}
+	}
+
+	/**
+	 * Creates the disc with the given diameter, centered on pixel (diameter / 2, diameter / 2).
+	 * 
+	 * @param diameter the diameter
+	 */
 	public CircleMask(int diameter) {
-		radSq = Math.pow(diameter / 2d, 2);
-		center = diameter / 2;
+		this(diameter / 2d);
+	}
+
+	private CircleMask(double radius) {
+		extent = radius < 0 ? -1 : (int) Math.floor(radius);
+		size = 2 * extent + 1;
+		halfWidths = new int[Math.max(size, 0)];
 
-		boolean even = diameter % 2 == 0;
-		size = even ? diameter + 1 : diameter;
+		double radSq = radius * radius;
+		for (int dy = -extent; dy <= extent; dy++) {
+			int hw = (int) Math.sqrt(radSq - dy * dy);
+			while (hw * hw + dy * dy > radSq) // correct for rounding in sqrt
+				hw--;
+			while ((hw + 1) * (hw + 1) + dy * dy <= radSq)
+				hw++;
+			halfWidths[dy + extent] = hw;
+		}
 	}
 
-	private final double center;
-	private final double radSq;
+	private final int extent; // distance from the center to the edge of the bounding square
 	private final int size;
+	private final int[] halfWidths; // row y of the disc spans center - halfWidths[y] to center + halfWidths[y]
+
+	/**
+	 * @return the distance in pixels from the center pixel to the farthest row or column of the disc, or -1 if the
+	 *         disc is empty
+	 */
+	public int getExtent() {
+		return extent;
+	}
+
+	/**
+	 * Returns half the width of the given row of the disc: the row spans from the center's x minus this to the center's
+	 * x plus this, inclusive.
+	 * 
+	 * @param dy row relative to the center, from <code>-getExtent()</code> to <code>getExtent()</code>
+	 * @return the half width
+	 */
+	public int getHalfWidth(int dy) {
+		return halfWidths[dy + extent];
+	}
 
 	@Override
 	public boolean get(int x, int y) {
-		return Math.pow(x - center, 2) + Math.pow(y - center, 2) <= radSq;
+		if (y < 0 || y >= size)
+			return false;
+		int dx = x - extent;
+		int hw = halfWidths[y];
+		return -hw <= dx && dx <= hw;
+	}
+
+	@Override
+	public long getVersion() {
+		return 0; // immutable
 	}
 
 	@Override
@@ -0,0 +1,156 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Counts the distinct colors of one or more layers, ignoring alpha. Fully transparent pixels are not counted. Colors
+ * are numbered in the order they were first added, and are stored opaque.
+ */
+public class ColorHistogram {
+
+	/**
+	 * Counts the colors of the given layers.
+	 * 
+	 * @param layers the layers
+	 * @return the histogram
+	 */
+	public static ColorHistogram of(Layer... layers) {
+		var h = new ColorHistogram();
+		for (Layer l : layers)
+			h.addAll(l);
+		return h;
+	}
+
+	public ColorHistogram() {
+		table = new int[256];
+		slots = new int[256];
+		colors = new int[64];
+		counts = new int[64];
+	}
+
+	// fields
+
+	private int[] table; // open-addressing hash table of colors; 0 marks an empty slot, as every color is opaque
+	private int[] slots; // index into colors of the color in each slot of the table
+	private int[] colors, counts; // distinct colors, and how many pixels of each were added
+	private int size = 0;
+	private long totalCount = 0;
+
+	// methods
+
+	/**
+	 * Adds every pixel of the given layer that is not fully transparent.
+	 * 
+	 * @param l the layer
+	 */
+	public void addAll(Layer l) {
+		int[] data = l.getData();
+		for (int j = 0; j < l.getHeight(); j++) {
+			int row = l.getOffset() + j * l.getStride();
+			int prev = 0, prevIndex = -1; // runs of one color are common, so remember the last one
+			for (int i = row; i < row + l.getWidth(); i++) {
+				int rgb = data[i];
+				if (rgb >>> 24 == 0)
+					continue;
+				if (prevIndex < 0 || (rgb ^ prev) << 8 != 0) {
+					prev = rgb;
+					prevIndex = add(rgb, 1);
+				} else {
+					counts[prevIndex]++;
+					totalCount++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the given number of pixels of the given color.
+	 * 
+	 * @param rgb   the color; alpha is ignored
+	 * @param count the number of pixels
+	 * @return the index of the color
+	 */
+	public int add(int rgb, int count) {
+		rgb |= 0xff000000;
+		int slot = slotOf(table, rgb);
+		int index;
+		if (table[slot] == rgb) {
+			index = slots[slot];
+		} else {
+			if (size == colors.length) {
+				colors = Arrays.copyOf(colors, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			index = size++;
+			colors[index] = rgb;
+			table[slot] = rgb;
+			slots[slot] = index;
+			if (size * 2 > table.length)
+				rehash();
+		}
+		counts[index] += count;
+		totalCount += count;
+		return index;
+	}
+
+	/**
+	 * Returns the index of the given color, ignoring alpha.
+	 * 
+	 * @param rgb the color
+	 * @return the index, or -1 if the color was never added
+	 */
+	public int indexOf(int rgb) {
+		rgb |= 0xff000000;
+		int slot = slotOf(table, rgb);
+		return table[slot] == rgb ? slots[slot] : -1;
+	}
+
+	/**
+	 * @return the number of distinct colors
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index index of a color
+	 * @return the color, which is opaque
+	 */
+	public int getColor(int index) {
+		return colors[index];
+	}
+
+	/**
+	 * @param index index of a color
+	 * @return the number of pixels of the color
+	 */
+	public int getCount(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * @return the number of pixels added
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	private static int slotOf(int[] table, int rgb) {
+		int mask = table.length - 1;
+		int i = (rgb * 0x9E3779B9 >>> 16 ^ rgb * 0x9E3779B9) & mask;
+		while (table[i] != 0 && table[i] != rgb)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		slots = new int[table.length];
+		for (int index = 0; index < size; index++) {
+			int slot = slotOf(table, colors[index]);
+			table[slot] = colors[index];
+			slots[slot] = index;
+		}
+	}
+
+}
@@ -0,0 +1,346 @@
+package canvas;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * K-means clustering of the colors of a {@link ColorHistogram}, each color weighted by its number of pixels. Colors
+ * are compared as vectors of either r,g,b or h,s,b components, with hue treated as cyclic. The means are seeded with
+ * k-means++ and refined until no color changes cluster, so the result depends only on the histogram and the seed.
+ */
+public class KMeans {
+
+	/**
+	 * The outcome of clustering.
+	 * 
+	 * @param palette    the mean of each cluster, opaque
+	 * @param assignment index into the palette of the cluster of each color of the histogram
+	 * @param iterations number of rounds of refinement done
+	 */
+	public static record Result(int[] palette, int[] assignment, int iterations) {
+	}
+
+	/**
+	 * Most rounds of refinement to do before giving up on convergence.
+	 */
+	public static final int MAX_ITERATIONS = 100;
+
+	/**
+	 * Refinement stops once no mean moves by more than this, in units of the full range of a component, or once no
+	 * color changes mean. Smaller moves would hardly change the 8-bit colors of the means.
+	 */
+	public static final double TOLERANCE = 0.5 / 255;
+
+	// below this many color-mean comparisons per round, assigning colors in parallel is not worth it
+	private static final long PARALLEL_THRESHOLD = 1 << 16;
+
+	/**
+	 * Clusters the colors of the given histogram.
+	 * 
+	 * @param h    the histogram
+	 * @param k    number of clusters
+	 * @param hsb  true to compare colors by h,s,b components, false to compare by r,g,b
+	 * @param seed seed for choosing the initial means
+	 * @return the result
+	 */
+	public static Result cluster(ColorHistogram h, int k, boolean hsb, long seed) {
+		if (k < 1 || k > h.size())
+			throw new IllegalArgumentException("Cannot reduce %d colors down to %d".formatted(h.size(), k));
+		return new KMeans(h, k, hsb).run(seed);
+	}
+
+	private KMeans(ColorHistogram h, int k, boolean hsb) {
+		this.k = k;
+		this.hsb = hsb;
+		n = h.size();
+		weights = new int[n];
+		features = new float[3 * n];
+		float[] hsbValues = new float[3];
+		for (int i = 0; i < n; i++) {
+			int rgb = h.getColor(i);
+			weights[i] = h.getCount(i);
+			if (hsb) {
+				Color.RGBtoHSB(rgb >>> 16 & 0xff, rgb >>> 8 & 0xff, rgb & 0xff, hsbValues);
+				System.arraycopy(hsbValues, 0, features, 3 * i, 3);
+			} else {
+				features[3 * i] = (rgb >>> 16 & 0xff) / 255f;
+				features[3 * i + 1] = (rgb >>> 8 & 0xff) / 255f;
+				features[3 * i + 2] = (rgb & 0xff) / 255f;
+			}
+		}
+		if (hsb) {
+			hueCos = new float[n];
+			hueSin = new float[n];
+			for (int i = 0; i < n; i++) {
+				hueCos[i] = (float) Math.cos(2 * Math.PI * features[3 * i]);
+				hueSin[i] = (float) Math.sin(2 * Math.PI * features[3 * i]);
+			}
+		} else {
+			hueCos = hueSin = null;
+		}
+		means = new float[3 * k];
+		assignment = new int[n];
+		upper = new double[n];
+		lower = new double[n];
+	}
+
+	// fields
+
+	private final int n, k;
+	private final boolean hsb;
+	private final int[] weights;
+	private final float[] features; // components of each color from 0 to 1, 3 to a color
+	private final float[] hueCos, hueSin; // hue of each color as a unit vector, for averaging; null if not hsb
+	private final float[] means; // components of each mean, 3 to a mean
+
+	// The nearest mean to each color, with bounds on the distance to it and to every other mean. Colors whose bounds
+	// show that their mean is still the nearest are skipped when assigning colors to means (Hamerly's algorithm).
+	private final int[] assignment;
+	private final double[] upper, lower;
+
+	// methods
+
+	private Result run(long seed) {
+		seed(new Random(seed));
+		colors().forEach(this::assignFully);
+
+		int iterations = 0;
+		while (iterations < MAX_ITERATIONS) {
+			iterations++;
+			double[] shifts = updateMeans();
+			double maxShift = Arrays.stream(shifts).max().getAsDouble();
+			if (maxShift <= TOLERANCE)
+				break;
+			if (assign(shifts) == 0)
+				break;
+		}
+
+		int[] palette = new int[k];
+		for (int c = 0; c < k; c++)
+			palette[c] = toRGB(c);
+		return new Result(palette, assignment, iterations);
+	}
+
+	/**
+	 * Chooses the initial means with k-means++: each is a color chosen with probability proportional to its weight
+	 * times its squared distance from the nearest mean chosen so far.
+	 */
+	private void seed(Random random) {
+		double[] dist = new double[n];
+		setMean(0, pick(random, i -> weights[i]));
+		for (int i = 0; i < n; i++)
+			dist[i] = distance(i, 0);
+		for (int c = 1; c < k; c++) {
+			int chosen = pick(random, i -> weights[i] * dist[i]);
+			if (dist[chosen] == 0) // every remaining color of positive weight coincides with a mean
+				chosen = firstColorNotMean(c);
+			setMean(c, chosen);
+			for (int i = 0; i < n; i++)
+				dist[i] = Math.min(dist[i], distance(i, c));
+		}
+	}
+
+	/**
+	 * Returns a color chosen with probability proportional to the given weight, or the last color of positive weight if
+	 * rounding leaves nothing chosen.
+	 */
+	private int pick(Random random, IntToDoubleFunction weight) {
+		double total = 0;
+		for (int i = 0; i < n; i++)
+			total += weight.applyAsDouble(i);
+		double r = random.nextDouble() * total;
+		int last = 0;
+		for (int i = 0; i < n; i++) {
+			double w = weight.applyAsDouble(i);
+			if (w <= 0)
+				continue;
+			last = i;
+			r -= w;
+			if (r < 0)
+				return i;
+		}
+		return last;
+	}
+
+	private int firstColorNotMean(int nMeans) {
+		outer: for (int i = 0; i < n; i++) {
+			for (int c = 0; c < nMeans; c++)
+				if (distance(i, c) == 0)
+					continue outer;
+			return i;
+		}
+		return 0;
+	}
+
+	private void setMean(int c, int i) {
+		System.arraycopy(features, 3 * i, means, 3 * c, 3);
+	}
+
+	/**
+	 * Returns the indices of the colors, as a parallel stream if there are enough colors and means to be worth it. Work
+	 * on each color only touches that color's entries, so the result is the same either way.
+	 */
+	private IntStream colors() {
+		var indices = IntStream.range(0, n);
+		return (long) n * k >= PARALLEL_THRESHOLD ? indices.parallel() : indices;
+	}
+
+	/**
+	 * Assigns each color to its nearest mean after the means moved by the given distances, skipping colors whose
+	 * bounds show their mean is still the nearest.
+	 * 
+	 * @return the number of colors assigned to a different mean
+	 */
+	private long assign(double[] shifts) {
+		// the largest two shifts, to loosen the bound on the distance to every mean other than a color's own
+		int movedMost = 0;
+		for (int c = 1; c < k; c++)
+			if (shifts[c] > shifts[movedMost])
+				movedMost = c;
+		final int farthest = movedMost;
+		double maxShift = shifts[farthest], second = 0;
+		for (int c = 0; c < k; c++)
+			if (c != farthest)
+				second = Math.max(second, shifts[c]);
+		final double secondShift = second;
+
+		// half the distance from each mean to the nearest other mean; a color closer than that is closest to the mean
+		double[] halfGaps = new double[k];
+		Arrays.fill(halfGaps, Double.MAX_VALUE);
+		for (int c1 = 0; c1 < k; c1++) {
+			for (int c2 = c1 + 1; c2 < k; c2++) {
+				double half = Math.sqrt(distance(means, c1, c2)) / 2;
+				halfGaps[c1] = Math.min(halfGaps[c1], half);
+				halfGaps[c2] = Math.min(halfGaps[c2], half);
+			}
+		}
+
+		return colors().filter(i -> {
+			int c = assignment[i];
+			upper[i] += shifts[c];
+			lower[i] -= c == farthest ? secondShift : maxShift;
+			double bound = Math.max(halfGaps[c], lower[i]);
+			if (upper[i] <= bound)
+				return false;
+			upper[i] = Math.sqrt(distance(i, c));
+			if (upper[i] <= bound)
+				return false;
+			assignFully(i);
+			return assignment[i] != c;
+		}).count();
+	}
+
+	/**
+	 * Assigns a color to its nearest mean by comparing it with every mean, and sets its bounds exactly.
+	 */
+	private void assignFully(int i) {
+		double minDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
+		int nearest = 0;
+		for (int c = 0; c < k; c++) {
+			double dist = distance(i, c);
+			if (dist < minDist) {
+				secondDist = minDist;
+				minDist = dist;
+				nearest = c;
+			} else if (dist < secondDist) {
+				secondDist = dist;
+			}
+		}
+		assignment[i] = nearest;
+		upper[i] = Math.sqrt(minDist);
+		lower[i] = Math.sqrt(secondDist);
+	}
+
+	/**
+	 * Moves each mean to the weighted average of its colors. Hue is averaged as an angle. A mean left without colors is
+	 * moved to the color farthest from its own mean.
+	 * 
+	 * @return the distance each mean moved
+	 */
+	private double[] updateMeans() {
+		float[] old = means.clone();
+		double[] sums = new double[4 * k]; // weighted sums of each component, 4 to a mean (hue as cosine, then sine)
+		double[] totals = new double[k];
+		for (int i = 0; i < n; i++) {
+			int c = assignment[i];
+			double w = weights[i];
+			if (hsb) {
+				sums[4 * c] += w * hueCos[i];
+				sums[4 * c + 3] += w * hueSin[i];
+			} else {
+				sums[4 * c] += w * features[3 * i];
+			}
+			sums[4 * c + 1] += w * features[3 * i + 1];
+			sums[4 * c + 2] += w * features[3 * i + 2];
+			totals[c] += w;
+		}
+
+		double[] shifts = new double[k];
+		for (int c = 0; c < k; c++) {
+			if (totals[c] == 0) {
+				int i = farthestColor();
+				setMean(c, i);
+				assignment[i] = c;
+				upper[i] = lower[i] = 0;
+			} else {
+				if (hsb) {
+					double hue = Math.atan2(sums[4 * c + 3], sums[4 * c]) / (2 * Math.PI);
+					means[3 * c] = (float) (hue < 0 ? hue + 1 : hue);
+				} else {
+					means[3 * c] = (float) (sums[4 * c] / totals[c]);
+				}
+				means[3 * c + 1] = (float) (sums[4 * c + 1] / totals[c]);
+				means[3 * c + 2] = (float) (sums[4 * c + 2] / totals[c]);
+			}
+			shifts[c] = Math.sqrt(distance(old, c, c));
+		}
+		return shifts;
+	}
+
+	private int farthestColor() {
+		double maxDist = -1;
+		int farthest = 0;
+		for (int i = 0; i < n; i++) {
+			double dist = distance(i, assignment[i]);
+			if (dist > maxDist) {
+				maxDist = dist;
+				farthest = i;
+			}
+		}
+		return farthest;
+	}
+
+	/**
+	 * Returns the squared distance between a color and a mean.
+	 */
+	private double distance(int i, int c) {
+		return distance(features, i, c);
+	}
+
+	/**
+	 * Returns the squared distance between the given vector, one of an array of them, and a mean. Hue is cyclic, so
+	 * that the distance between colors compared by h,s,b is still a metric.
+	 */
+	private double distance(float[] vectors, int i, int c) {
+		float d0 = vectors[3 * i] - means[3 * c];
+		if (hsb) {
+			d0 = Math.abs(d0);
+			d0 = Math.min(d0, 1 - d0);
+		}
+		float d1 = vectors[3 * i + 1] - means[3 * c + 1];
+		float d2 = vectors[3 * i + 2] - means[3 * c + 2];
+		return d0 * d0 + d1 * d1 + d2 * d2;
+	}
+
+	private int toRGB(int c) {
+		if (hsb)
+			return Color.HSBtoRGB(means[3 * c], means[3 * c + 1], means[3 * c + 2]);
+		int r = Math.round(255 * means[3 * c]), g = Math.round(255 * means[3 * c + 1]);
+		int b = Math.round(255 * means[3 * c + 2]);
+		return 0xff000000 | r << 16 | g << 8 | b;
+	}
+
+}
@@ -0,0 +1,30 @@
+package canvas;
+
+/**
+ * Quantizes colors with {@link KMeans}. The slowest of the quantizers, but it can compare colors by h,s,b.
+ */
+public class KMeansQuantizer implements Quantizer {
+
+	/**
+	 * @param hsb  true to compare colors by h,s,b components, false to compare by r,g,b
+	 * @param seed seed for choosing the initial means
+	 */
+	public KMeansQuantizer(boolean hsb, long seed) {
+		this.hsb = hsb;
+		this.seed = seed;
+	}
+
+	// fields
+
+	private final boolean hsb;
+	private final long seed;
+
+	// methods
+
+	@Override
+	public Result reduce(ColorHistogram h, int nColors) {
+		var result = KMeans.cluster(h, nColors, hsb, seed);
+		return new Result(result.palette(), result.assignment());
+	}
+
+}
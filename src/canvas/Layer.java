@@ -6,15 +6,20 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.function.IntPredicate;
 
-import util.Cache;
+import util.RGBSet;
 import util.Util;
 
 public class Layer implements BitMask {
@@ -26,155 +31,62 @@ public class Layer implements BitMask {
 
 	public static final Color ERASE_COLOR = new Color(255, 255, 255, 0);
 
+	private static final int CELL_SIZE = 16; // width and height of the squares of the raster versioned separately
+
 	/**
-	 * Reduces the number of colors in the given layers to the given number. K-means is used. Colors are compared as
-	 * vectors of either r,g,b components or h,s,b components.
+	 * Reduces the number of colors in the given layers to the given number. K-means is used, on the histogram of
+	 * colors of the layers. Colors are compared as vectors of either r,g,b components or h,s,b components. The alpha
+	 * of each pixel is kept.
 	 * 
 	 * @param nColors  number of distinct colors after reduction
 	 * @param rgbOrHsb true to use RGB representation, false to use HSB
 	 * @param layers   layers to change
 	 */
 	public static void reduceNColors(int nColors, boolean rgbOrHsb, Layer... layers) {
-		Point pix = new Point();
-		var random = new Random();
-
-		// make list of all colors to pick from randomly
-		List<Integer> allColors = new ArrayList<Integer>();
-
-		for (Layer l : layers) {
-			for (pix.x = 0; pix.x < l.getWidth(); pix.x++) {
-				for (pix.y = 0; pix.y < l.getHeight(); pix.y++) {
-					int rgb = l.getRGB(pix);
-					if (Util.a(rgb) != 0 && !allColors.contains(rgb)) {
-						allColors.add(rgb);
-					}
-				}
-			}
-		}
-
-		// initialize lists
-		List<ArrayList<Integer>> rgbsInGroup = new ArrayList<>(nColors);
-		int[] rgbMeans = new int[nColors];
-
-		for (int index = 0; index < nColors; index++) {
-			rgbsInGroup.add(new ArrayList<Integer>());
-
-			if (allColors.isEmpty())
-				throw new RuntimeException("Cannot reduce %d colors down to %d".formatted(index, nColors));
-			int colorIndex = random.nextInt(allColors.size());
-			rgbMeans[index] = allColors.remove(colorIndex);
-		}
-
-		// perform k-means
-		final int nEpochs = 10;
-
-		for (int epoch = 0; epoch < nEpochs; epoch++) {
-			// clear groups
-			for (int index = 0; index < nColors; index++) {
-				rgbsInGroup.get(index).clear();
-			}
+		reduceNColors(nColors, rgbOrHsb, 0, layers);
+	}
 
-			// recreate groups
-			for (Layer l : layers) {
-				for (pix.x = 0; pix.x < l.getWidth(); pix.x++) {
-					for (pix.y = 0; pix.y < l.getHeight(); pix.y++) {
-						int rgb = l.getRGB(pix);
-						if (Util.a(rgb) == 0)
-							continue;
-
-						// find which group to put the rgb value in
-						double minDist = Double.MAX_VALUE;
-						int minDistIndex = -1;
-
-						for (int index = 0; index < nColors; index++) {
-							double dist = rgbOrHsb ? getColorDistRGB(rgb, rgbMeans[index])
-									: getColorDistHSB(rgb, rgbMeans[index]);
-							if (dist < minDist) {
-								minDist = dist;
-								minDistIndex = index;
-							}
-						}
-
-						rgbsInGroup.get(minDistIndex).add(rgb);
-					}
-				}
-			}
+	/**
+	 * Reduces the number of colors in the given layers to the given number, as in
+	 * {@link #reduceNColors(int, boolean, Layer...)}. The result depends only on the pixels and the seed.
+	 * 
+	 * @param nColors  number of distinct colors after reduction
+	 * @param rgbOrHsb true to use RGB representation, false to use HSB
+	 * @param seed     seed for choosing the initial means
+	 * @param layers   layers to change
+	 */
+	public static void reduceNColors(int nColors, boolean rgbOrHsb, long seed, Layer... layers) {
+		reduceNColors(nColors, new KMeansQuantizer(!rgbOrHsb, seed), layers);
+	}
 
-			// recalculate means
-			float[] hsb = new float[3];
-			for (int index = 0; index < nColors; index++) {
-				if (rgbOrHsb) {
-					int rsum = 0, bsum = 0, gsum = 0;
-					var group = rgbsInGroup.get(index);
-
-					for (int rgb : group) {
-						rsum += Util.r(rgb);
-						bsum += Util.b(rgb);
-						gsum += Util.g(rgb);
-					}
-					rgbMeans[index] = Util.argb(255, rsum / group.size(), gsum / group.size(), bsum / group.size());
-				} else {
-					float[] sums = new float[hsb.length];
-					var group = rgbsInGroup.get(index);
-
-					for (int rgb : group) {
-						Color.RGBtoHSB(Util.r(rgb), Util.g(rgb), Util.b(rgb), hsb);
-						for (int i = 0; i < hsb.length; i++)
-							sums[i] += hsb[i];
-					}
-					rgbMeans[index] = Color.HSBtoRGB(sums[0] / group.size(), sums[1] / group.size(),
-							sums[2] / group.size());
-				}
-			}
-		}
+	/**
+	 * Reduces the number of colors in the given layers to at most the given number, using the given quantizer on the
+	 * histogram of colors of the layers. The alpha of each pixel is kept.
+	 * 
+	 * @param nColors   largest number of distinct colors after reduction
+	 * @param quantizer the quantizer
+	 * @param layers    layers to change
+	 */
+	public static void reduceNColors(int nColors, Quantizer quantizer, Layer... layers) {
+		var histogram = ColorHistogram.of(layers);
+		var result = quantizer.quantize(histogram, nColors);
 
 		// set colors to closest means
 		for (Layer l : layers) {
-			for (pix.x = 0; pix.x < l.getWidth(); pix.x++) {
-				for (pix.y = 0; pix.y < l.getHeight(); pix.y++) {
-					// find which group to set the rgb value to
-					int rgb = l.getRGB(pix);
+			for (int j = 0; j < l.height; j++) {
+				int row = l.offset + j * l.stride;
+				for (int i = row; i < row + l.width; i++) {
+					int rgb = l.data[i];
 					if (Util.a(rgb) == 0)
 						continue;
-
-					double minDist = Double.MAX_VALUE;
-					int minDistIndex = -1;
-
-					for (int index = 0; index < nColors; index++) {
-						double dist = rgbOrHsb ? getColorDistRGB(rgb, rgbMeans[index])
-								: getColorDistHSB(rgb, rgbMeans[index]);
-						if (dist < minDist) {
-							minDist = dist;
-							minDistIndex = index;
-						}
-					}
-					int meanRGB = rgbMeans[minDistIndex];
-					l.setPixel(pix, Util.argb(Util.a(rgb), Util.r(meanRGB), Util.g(meanRGB), Util.b(meanRGB)));
+					int meanRGB = result.palette()[result.assignment()[histogram.indexOf(rgb)]];
+					l.data[i] = rgb & 0xff000000 | meanRGB & 0xffffff;
 				}
 			}
+			l.markModified();
 		}
 	}
 
-	private static double getColorDistRGB(int rgb1, int rgb2) {
-		// method 1: treat rgb as vector with dimensions r, g, b
-		int dr = Util.r(rgb1) - Util.r(rgb2);
-		int dg = Util.g(rgb1) - Util.g(rgb2);
-		int db = Util.b(rgb1) - Util.b(rgb2);
-		return Math.sqrt(dr * dr + dg * dg + db * db);
-	}
-
-	private static final float[] hsb1 = new float[3], hsb2 = new float[3];
-
-	private static double getColorDistHSB(int rgb1, int rgb2) {
-		// method 1: treat rgb as vector with dimensions r, g, b
-		Color.RGBtoHSB(Util.r(rgb1), Util.g(rgb1), Util.b(rgb1), hsb1);
-		Color.RGBtoHSB(Util.r(rgb2), Util.g(rgb2), Util.b(rgb2), hsb2);
-		float dh = Math.min(Math.abs(hsb1[0] - hsb2[0]), Math.abs(hsb2[0] - hsb1[0])); // hue is cyclic
-		float ds = hsb1[1] - hsb2[1];
-		float db = hsb1[2] - hsb2[2];
-		return Math.sqrt(dh * dh + ds * ds + db * db);
-	}
-
 	// constructors
 
 	/**
@@ -189,14 +101,82 @@ public class Layer implements BitMask {
 		this(size.width, size.height);
 	}
 
+	/**
+	 * Creates a layer backed by the given image. Images that are not of type {@link BufferedImage#TYPE_INT_ARGB} are
+	 * converted, in which case the layer is backed by a copy rather than by the given image.
+	 * 
+	 * @param image the image
+	 */
 	public Layer(BufferedImage image) {
-		this.image = image;
+		this(image, null);
+	}
+
+	/**
+	 * Creates a layer backed by the given image, which is a view of (part of) the parent's image.
+	 * 
+	 * @param image  the image
+	 * @param parent the layer whose image the given image is a subimage of, or null
+	 */
+	private Layer(BufferedImage image, Layer parent) {
+		this.image = toIntARGB(image);
+		this.root = parent == null ? this : parent.root;
+
+		// locate this image's pixels within the backing array (subimages share the array of their parent)
+		var raster = this.image.getRaster();
+		var sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		data = ((DataBufferInt) raster.getDataBuffer()).getData();
+		stride = sampleModel.getScanlineStride();
+		offset = raster.getDataBuffer().getOffset()
+				+ sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+		width = this.image.getWidth();
+		height = this.image.getHeight();
+
+		// locate this image within the root's image (sample model translations are negated subimage offsets)
+		var rootRaster = root.image.getRaster();
+		originX = rootRaster.getSampleModelTranslateX() - raster.getSampleModelTranslateX();
+		originY = rootRaster.getSampleModelTranslateY() - raster.getSampleModelTranslateY();
+	}
+
+	/**
+	 * Returns the given image if it is already of type {@link BufferedImage#TYPE_INT_ARGB}, otherwise a copy of it that
+	 * is. The copy keeps the color channels of fully transparent pixels (which hold e.g. the sprite dimension
+	 * signature).
+	 * 
+	 * @param image an image
+	 * @return an image of type {@link BufferedImage#TYPE_INT_ARGB}
+	 */
+	private static BufferedImage toIntARGB(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB)
+			return image;
+		int w = image.getWidth(), h = image.getHeight();
+		var converted = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		int[] rgbs = ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+		image.getRGB(0, 0, w, h, rgbs, 0, w);
+		return converted;
 	}
 
 	// fields
 
 	private final BufferedImage image;
 
+	// direct access to the pixels of image: pixel (x, y) is data[offset + y * stride + x]
+	private final int[] data;
+	private final int offset, stride;
+	private final int width, height;
+	private final int originX, originY; // location of pixel (0, 0) within the root's image
+
+	private final Layer root; // the layer owning the raster this layer views (itself, unless this is a cropped view)
+	private long version = 0; // counts modifications to the raster; only used on the root
+	// version of the raster when each cell of it was last modified, row-major, or null if none has been; only used on
+	// the root, so that views of different parts of the raster have versions of their own
+	private long[] cellVersions = null;
+	// bounds, within the root's image, of the pixels modified since the damage was last cleared; only used on the root
+	private int damageX0 = Integer.MAX_VALUE, damageY0 = Integer.MAX_VALUE; // inclusive
+	private int damageX1 = Integer.MIN_VALUE, damageY1 = Integer.MIN_VALUE; // exclusive
+
+	private TileSnapshot lastSnapshot = null; // most recent snapshot taken or restored; later snapshots share its tiles
+	private long lastSnapshotVersion = -1; // version of the raster when lastSnapshot was taken or restored
+
 	// Getters & Setters
 
 	/**
@@ -207,7 +187,168 @@ public class Layer implements BitMask {
 	}
 
 	public int getRGB(Point pixel) {
-		return image.getRGB(pixel.x, pixel.y);
+		return getRGB(pixel.x, pixel.y);
+	}
+
+	/**
+	 * Returns the argb value of the given pixel, read directly from the backing array. Does not check bounds.
+	 * 
+	 * @param x x coordinate of pixel
+	 * @param y y coordinate of pixel
+	 * @return the argb value
+	 */
+	public int getRGB(int x, int y) {
+		return data[offset + y * stride + x];
+	}
+
+	/**
+	 * Sets the argb value of the given pixel, writing directly to the backing array. Does not check bounds, nor record
+	 * the modification: callers must {@link #markModified(int, int, int, int)} the pixels they set, as
+	 * {@link #doThingInCircle(Point, double, ThingDoer)} does for its circle. See {@link #setPixel(Point, int)} for a
+	 * checked and recorded version.
+	 * 
+	 * @param x   x coordinate of pixel
+	 * @param y   y coordinate of pixel
+	 * @param rgb the argb value
+	 */
+	public void setRGB(int x, int y, int rgb) {
+		data[offset + y * stride + x] = rgb;
+	}
+
+	/**
+	 * Returns a number that changes whenever the pixels of this layer are modified, whether through this layer or
+	 * through any other layer viewing the same raster (e.g. a spritesheet and its sprites). Modifications elsewhere in
+	 * the raster leave it unchanged, unless they fall in one of the squares of {@value #CELL_SIZE} pixels, aligned
+	 * with the raster, that this layer overlaps. Versions only increase, and are comparable between layers viewing
+	 * the same raster.
+	 * 
+	 * @return the version
+	 */
+	@Override
+	public long getVersion() {
+		return this == root ? version : getVersion(0, 0, width, height);
+	}
+
+	/**
+	 * Returns the version of the given rectangle of this layer, as in {@link #getVersion()}: a number that changes
+	 * whenever a pixel in the rectangle is modified, and is at most {@link #getVersion()}. Modifications outside the
+	 * rectangle leave it unchanged, unless they fall in one of the squares of the raster that it overlaps.
+	 * 
+	 * @param x x coordinate of the top-left pixel of the rectangle
+	 * @param y y coordinate of the top-left pixel of the rectangle
+	 * @param w width of the rectangle
+	 * @param h height of the rectangle
+	 * @return the version
+	 */
+	public long getVersion(int x, int y, int w, int h) {
+		long[] cells = root.cellVersions;
+		int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+		int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+		if (cells == null || x0 >= x1 || y0 >= y1)
+			return 0;
+		int nCellsX = root.getCellsX();
+		long max = 0;
+		for (int cy = (originY + y0) / CELL_SIZE; cy <= (originY + y1 - 1) / CELL_SIZE; cy++)
+			for (int cx = (originX + x0) / CELL_SIZE; cx <= (originX + x1 - 1) / CELL_SIZE; cx++)
+				max = Math.max(max, cells[cy * nCellsX + cx]);
+		return max;
+	}
+
+	/**
+	 * Records that the pixels of the underlying raster were modified by means other than this layer's methods, e.g.
+	 * by writing to {@link #getData()} or drawing on {@link #getImage()} directly. The whole layer is considered
+	 * damaged.
+	 */
+	public void markModified() {
+		markModified(0, 0, width, height);
+	}
+
+	/**
+	 * Records that the pixels in the given rectangle were modified by means other than this layer's methods. Parts of
+	 * the rectangle outside this layer are ignored.
+	 * 
+	 * @param x x coordinate of the top-left pixel of the rectangle
+	 * @param y y coordinate of the top-left pixel of the rectangle
+	 * @param w width of the rectangle
+	 * @param h height of the rectangle
+	 */
+	public void markModified(int x, int y, int w, int h) {
+		root.version++;
+		int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+		int x1 = Math.min(x + w, width), y1 = Math.min(y + h, height);
+		if (x0 < x1 && y0 < y1) {
+			root.addDamage(originX + x0, originY + y0, originX + x1, originY + y1);
+			root.touchCells(originX + x0, originY + y0, originX + x1, originY + y1);
+		}
+	}
+
+	/**
+	 * Returns the part of this layer modified since the damage was last cleared, through this layer or any other layer
+	 * viewing the same raster.
+	 * 
+	 * @return the damaged rectangle, in this layer's coordinates, or null if nothing within this layer was modified
+	 */
+	public Rectangle getDamage() {
+		int x0 = Math.max(root.damageX0 - originX, 0), y0 = Math.max(root.damageY0 - originY, 0);
+		int x1 = Math.min(root.damageX1 - originX, width), y1 = Math.min(root.damageY1 - originY, height);
+		if (x0 >= x1 || y0 >= y1)
+			return null;
+		return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	/**
+	 * Forgets the damage recorded on the underlying raster, for this layer and every other layer viewing it.
+	 */
+	public void clearDamage() {
+		root.damageX0 = root.damageY0 = Integer.MAX_VALUE;
+		root.damageX1 = root.damageY1 = Integer.MIN_VALUE;
+	}
+
+	private void addDamage(int x0, int y0, int x1, int y1) {
+		damageX0 = Math.min(damageX0, x0);
+		damageY0 = Math.min(damageY0, y0);
+		damageX1 = Math.max(damageX1, x1);
+		damageY1 = Math.max(damageY1, y1);
+	}
+
+	/**
+	 * Sets the version of the cells holding pixels (x0, y0) to (x1 - 1, y1 - 1) of the raster to the current version.
+	 */
+	private void touchCells(int x0, int y0, int x1, int y1) {
+		int nCellsX = getCellsX();
+		if (cellVersions == null)
+			cellVersions = new long[nCellsX * ((height + CELL_SIZE - 1) / CELL_SIZE)];
+		for (int cy = y0 / CELL_SIZE; cy <= (y1 - 1) / CELL_SIZE; cy++)
+			Arrays.fill(cellVersions, cy * nCellsX + x0 / CELL_SIZE, cy * nCellsX + (x1 - 1) / CELL_SIZE + 1, version);
+	}
+
+	private int getCellsX() {
+		return (width + CELL_SIZE - 1) / CELL_SIZE;
+	}
+
+	/**
+	 * Returns the array backing the underlying image. Pixel (x, y) of this layer is at index
+	 * <code>getOffset() + y * getStride() + x</code>. The array is shared with any other layers viewing the same image
+	 * (e.g. the sprites of a spritesheet), so it must not be written outside this layer's bounds.
+	 * 
+	 * @return the backing array
+	 */
+	public int[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the index in {@link #getData()} of pixel (0, 0)
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the distance in {@link #getData()} between vertically adjacent pixels
+	 */
+	public int getStride() {
+		return stride;
 	}
 
 	/**
@@ -217,7 +358,7 @@ public class Layer implements BitMask {
 	 */
 	@Override
 	public int getWidth() {
-		return image.getTileWidth();
+		return width;
 	}
 
 	/**
@@ -227,7 +368,7 @@ public class Layer implements BitMask {
 	 */
 	@Override
 	public int getHeight() {
-		return image.getHeight();
+		return height;
 	}
 
 	// Editing methods
@@ -239,7 +380,7 @@ public class Layer implements BitMask {
 	 * @param color
 	 */
 	public void drawPixel(Point pixel, Color color) {
-		var g = image.createGraphics();
+		var g = getGraphics();
 		g.setColor(color);
 		g.drawLine(pixel.x, pixel.y, pixel.x, pixel.y);
 		g.dispose();
@@ -252,8 +393,7 @@ public class Layer implements BitMask {
 	 * @param color the color
 	 */
 	public void setPixel(Point pixel, Color color) {
-		if (isInBounds(pixel))
-			image.setRGB(pixel.x, pixel.y, color.getRGB());
+		setPixel(pixel, color.getRGB());
 	}
 
 	/**
@@ -263,8 +403,10 @@ public class Layer implements BitMask {
 	 * @param rgb   the color
 	 */
 	public void setPixel(Point pixel, int rgb) {
-		if (isInBounds(pixel))
-			image.setRGB(pixel.x, pixel.y, rgb);
+		if (isInBounds(pixel)) {
+			setRGB(pixel.x, pixel.y, rgb);
+			markModified(pixel.x, pixel.y, 1, 1);
+		}
 	}
 
 	/**
@@ -275,12 +417,26 @@ public class Layer implements BitMask {
 	 * @param color   the color
 	 */
 	public void setPixels(Point center, double radius, Color color) {
-		doThingInCircle(center, radius, (_, pixel) -> setPixel(pixel, color));
+		int rgb = color.getRGB();
+		doThingInCircle(center, radius, (layer, pixel) -> layer.setRGB(pixel.x, pixel.y, rgb));
 	}
 
-	public void setPixels(Point x0, PixelMask mask, Color color) {
+	/**
+	 * Sets the color values of each pixel where the given mask is true, a run at a time. Ignores out-of-bounds pixels.
+	 * 
+	 * @param x0    location of the mask's origin on this layer
+	 * @param mask  the mask
+	 * @param color the color
+	 */
+	public void setPixels(Point x0, RegionMask mask, Color color) {
 		int rgb = color.getRGB();
-		mask.doAction(x0, (p) -> image.setRGB(p.x, p.y, rgb));
+		mask.doRuns((y, start, end) -> {
+			int j = x0.y + y, i0 = Math.max(x0.x + start, 0), i1 = Math.min(x0.x + end, width);
+			if (j < 0 || j >= height || i0 >= i1)
+				return;
+			Arrays.fill(data, offset + j * stride + i0, offset + j * stride + i1, rgb);
+			markModified(i0, j, i1 - i0, 1);
+		});
 	}
 
 	/**
@@ -289,6 +445,7 @@ public class Layer implements BitMask {
 	 * @return the graphics that can be used to draw on this layer's underlying image
 	 */
 	public Graphics2D getGraphics() {
+		markModified();
 		return image.createGraphics();
 	}
 
@@ -298,23 +455,74 @@ public class Layer implements BitMask {
 	 * @param p the point in the image to draw given image
 	 */
 	public void drawImage(BufferedImage image, Point p) {
-		var g = getGraphics();
+		var g = this.image.createGraphics();
 		g.drawImage(image, p.x, p.y, null);
 		g.dispose();
+		markModified(p.x, p.y, image.getWidth(), image.getHeight());
+	}
+
+	// Snapshots
+
+	/**
+	 * Takes a copy of this layer's pixels. Tiles that have not changed since the last snapshot taken or restored on
+	 * this layer are shared with it rather than copied, and tiles this layer has not modified since are not even
+	 * compared.
+	 * 
+	 * @return the snapshot
+	 */
+	public TileSnapshot snapshot() {
+		if (lastSnapshot == null || getVersion() != lastSnapshotVersion) {
+			lastSnapshot = new TileSnapshot(this, lastSnapshot, lastSnapshotVersion);
+			lastSnapshotVersion = getVersion();
+		}
+		return lastSnapshot;
 	}
 
 	/**
-	 * Sets the layer to the given image.
+	 * Sets this layer's pixels to those of the given snapshot, which must be the same size as this layer. If the layer
+	 * is unmodified since its last snapshot, only the tiles that differ between that snapshot and the given one are
+	 * written.
+	 * 
+	 * @param snapshot a snapshot
 	 */
-	public void setImage(BufferedImage image) {
-		this.image.setData(image.getData());
+	public void restore(TileSnapshot snapshot) {
+		if (snapshot == lastSnapshot && getVersion() == lastSnapshotVersion)
+			return;
+		boolean unmodified = lastSnapshot != null && getVersion() == lastSnapshotVersion;
+		snapshot.copyTo(this, unmodified ? lastSnapshot : null); // marks the tiles it writes as modified
+		lastSnapshot = snapshot;
+		lastSnapshotVersion = getVersion();
 	}
 
 	// Rendering methods
 
-	// slight optimization to prevent generation of new Paint objects every time
-	private final Dimension backgroundTileDim = new Dimension(1, 1); // why does app break if this is static?
-	private Cache<Dimension, Paint> backgroundPaint = new Cache<>(Util::getPaint);
+	// checkerboard with squares half a pixel wide, when drawn scaled by 1/2
+	private static final Paint backgroundPaint = Util.getPaint(new Dimension(1, 1));
+
+	/**
+	 * Identifies a pre-rendered checkerboard: the size of the layer, the scale it is drawn at on the device, and the
+	 * fractional part of its device location.
+	 */
+	private static record BackgroundKey(int width, int height, double scaleX, double scaleY, double fracX,
+			double fracY) {
+	}
+
+	/**
+	 * A pre-rendered checkerboard and its location relative to the floored device location of the layer.
+	 */
+	private static record Background(BufferedImage image, int x, int y) {
+	}
+
+	// recently used checkerboards, shared by every layer and panel drawing layers of the same size at the same zoom
+	private static final int maxCachedBackgrounds = 4;
+	private static final LinkedHashMap<BackgroundKey, Background> backgrounds = new LinkedHashMap<>(8, .75f, true) {
+		private static final long serialVersionUID = -3985710472207313573L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<BackgroundKey, Background> eldest) {
+			return size() > maxCachedBackgrounds;
+		}
+	};
 
 	/**
 	 * Draws the image scaled and moved to fit within the rectangle specified by loc and size, including a background
@@ -338,15 +546,26 @@ public class Layer implements BitMask {
 	 * @param style either {@link #RENDER_TILES}, {@link #RENDER_WHITE}, or {@link #RENDER_TRANSPARENT}.
 	 */
 	public void renderAt(Graphics2D g, AffineTransform tf, int style) {
+		renderBackground(g, tf, style);
+		var g2 = (Graphics2D) g.create();
+		g2.transform(tf);
+		g2.drawImage(getImage(), 0, 0, null);
+		g2.dispose();
+	}
+
+	/**
+	 * Draws only the background that {@link #renderAt(Graphics2D, AffineTransform, int)} would draw beneath the image.
+	 * 
+	 * @param g     graphics to draw on
+	 * @param tf    AffineTransform to use
+	 * @param style either {@link #RENDER_TILES}, {@link #RENDER_WHITE}, or {@link #RENDER_TRANSPARENT}.
+	 */
+	public void renderBackground(Graphics2D g, AffineTransform tf, int style) {
 		var g2 = (Graphics2D) g.create();
 		g2.transform(tf);
 		switch (style) {
 		case RENDER_TILES:
-			var g3 = (Graphics2D) g2.create();
-			g3.scale(.5, .5);
-			g3.setPaint(backgroundPaint.get(backgroundTileDim));
-			g3.fillRect(0, 0, getWidth() * 2, getHeight() * 2);
-			g3.dispose();
+			renderTiles(g2);
 			break;
 		case RENDER_WHITE:
 			g2.setColor(Color.WHITE);
@@ -357,10 +576,84 @@ public class Layer implements BitMask {
 		default:
 			throw new IllegalArgumentException("Invalid style: " + style);
 		}
-		g2.drawImage(getImage(), 0, 0, null);
 		g2.dispose();
 	}
 
+	/**
+	 * Draws the checkerboard background over this layer's area. The checkerboard is pre-rendered at the graphics'
+	 * device scale and then copied, unless the graphics is rotated or sheared.
+	 * 
+	 * @param g graphics to draw on, transformed so that one unit is one pixel of this layer
+	 */
+	private void renderTiles(Graphics2D g) {
+		var tf = g.getTransform();
+		int scaleOnly = AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE
+				| AffineTransform.TYPE_GENERAL_SCALE;
+		if ((tf.getType() & ~scaleOnly) != 0 || tf.getScaleX() <= 0 || tf.getScaleY() <= 0) {
+			var g2 = (Graphics2D) g.create();
+			g2.scale(.5, .5);
+			g2.setPaint(backgroundPaint);
+			g2.fillRect(0, 0, getWidth() * 2, getHeight() * 2);
+			g2.dispose();
+			return;
+		}
+
+		int x = Util.floor(tf.getTranslateX()), y = Util.floor(tf.getTranslateY());
+		var key = new BackgroundKey(getWidth(), getHeight(), tf.getScaleX(), tf.getScaleY(), tf.getTranslateX() - x,
+				tf.getTranslateY() - y);
+		Background background;
+		synchronized (backgrounds) {
+			background = backgrounds.computeIfAbsent(key, Layer::renderTiles);
+		}
+		if (background == null) // covers no pixels
+			return;
+
+		var g2 = (Graphics2D) g.create();
+		g2.setTransform(new AffineTransform());
+		g2.drawImage(background.image(), x + background.x(), y + background.y(), null);
+		g2.dispose();
+	}
+
+	/**
+	 * Renders the checkerboard for a layer as described by the given key. The result holds exactly the device pixels
+	 * that filling the layer's area covers, so that it can be opaque.
+	 * 
+	 * @param key the size, scale and location of the layer
+	 * @return the background, or null if the area covers no pixels
+	 */
+	private static Background renderTiles(BackgroundKey key) {
+		double w = key.fracX() + key.width() * key.scaleX(), h = key.fracY() + key.height() * key.scaleY();
+		var filled = new BufferedImage(Util.ceil(w) + 1, Util.ceil(h) + 1, BufferedImage.TYPE_INT_ARGB);
+		var g = filled.createGraphics();
+		g.translate(key.fracX(), key.fracY());
+		g.scale(key.scaleX() / 2, key.scaleY() / 2);
+		g.setPaint(backgroundPaint);
+		g.fillRect(0, 0, key.width() * 2, key.height() * 2);
+		g.dispose();
+
+		// find the covered pixels, which form a rectangle, and copy them to an opaque image
+		int[] argbs = ((DataBufferInt) filled.getRaster().getDataBuffer()).getData();
+		int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = 0, y1 = 0;
+		for (int j = 0; j < filled.getHeight(); j++) {
+			for (int i = 0; i < filled.getWidth(); i++) {
+				if (Util.getAlpha(argbs[j * filled.getWidth() + i]) != 0) {
+					x0 = Math.min(x0, i);
+					y0 = Math.min(y0, j);
+					x1 = Math.max(x1, i + 1);
+					y1 = Math.max(y1, j + 1);
+				}
+			}
+		}
+		if (x0 >= x1 || y0 >= y1)
+			return null;
+
+		var image = new BufferedImage(x1 - x0, y1 - y0, BufferedImage.TYPE_INT_RGB);
+		g = image.createGraphics();
+		g.drawImage(filled, -x0, -y0, null);
+		g.dispose();
+		return new Background(image, x0, y0);
+	}
+
 	/**
 	 * Draws a thin rectangle around where this layer's image would be drawn.
 	 * 
@@ -402,53 +695,45 @@ public class Layer implements BitMask {
 		Point mp = new Point();
 		int alpha;
 		int totalAlpha = 0;
-		for (int i = 0; i < getWidth(); i++)
-			for (int j = 0; j < getHeight(); j++) {
-				alpha = Util.getAlpha(image.getRGB(i, j));
+		for (int j = 0; j < height; j++) {
+			int row = offset + j * stride;
+			for (int i = 0; i < width; i++) {
+				alpha = Util.getAlpha(data[row + i]);
 				mp.translate(i * alpha, j * alpha);
 				totalAlpha += alpha;
 			}
+		}
 		mp.x /= totalAlpha;
 		mp.y /= totalAlpha;
 		return mp;
 	}
 
-	public PixelMask getMonochromeRegion(Point pixel, double searchRadius, List<Integer> otherRGBs) {
-		final List<Integer> rgbs = otherRGBs == null ? new ArrayList<>() : otherRGBs;
+	/**
+	 * Finds the region of pixels reachable from the given pixel by steps no longer than the search radius, landing only
+	 * on pixels whose color is that of the given pixel or one of the other given colors. Radii below 2 connect each
+	 * pixel only to its immediate neighbors, and are filled a span at a time; larger radii search between runs of
+	 * matching pixels, so the cost does not grow with the area of the search disc.
+	 * 
+	 * @param pixel        pixel to start from
+	 * @param searchRadius longest step between pixels of the region (inclusive)
+	 * @param otherRGBs    other colors to include, to which the color of the given pixel is added; may be null
+	 * @return mask of the region
+	 */
+	public PixelMask getMonochromeRegion(Point pixel, double searchRadius, RGBSet otherRGBs) {
+		final RGBSet rgbs = otherRGBs == null ? new RGBSet() : otherRGBs;
 
-		rgbs.add(image.getRGB(pixel.x, pixel.y)); // make sure we search for color at given pixel
+		rgbs.add(getRGB(pixel.x, pixel.y)); // make sure we search for color at given pixel
+		IntPredicate matches = rgbs::contains;
 
-		PixelMask mask = new PixelMask(getSize());
-		PixelMask explored = new PixelMask(getSize());
-		Set<Point> frontier1 = new HashSet<>(), frontier2 = new HashSet<>();
-		mask.set(pixel, true);
-		PixelMask.Condition condition = (_, rgb2) -> {
-			for (Integer rgb : rgbs)
-				if (Util.rgbEqual(rgb, rgb2))
-					return true;
-			return false;
-		};
-
-		// find the points
-		frontier1.add(new Point(pixel));
-		while (!frontier1.isEmpty()) {
-			final Set<Point> frontier = frontier2;
-			for (Point p : frontier1) {
-				explored.set(p, true);
-				doThingInCircle(p, searchRadius, (image, p2) -> {
-					if (isInBounds(p2) && !explored.get(p2.x, p2.y)
-							&& condition.accept(null, image.getRGB(p2.x, p2.y))) {
-						mask.set(p2.x, p2.y, true);
-						frontier.add(new Point(p2));
-					}
-				});
-			}
-			frontier1.clear();
-			frontier2 = frontier1;
-			frontier1 = frontier;
+		var disc = CircleMask.ofRadius(searchRadius);
+		if (disc.getExtent() < 1) { // only the given pixel is in reach
+			PixelMask mask = new PixelMask(getSize());
+			mask.set(pixel, true);
+			return mask;
 		}
-
-		return mask;
+		if (disc.getExtent() == 1) // 4- or 8-connected
+			return RegionSearch.fillSpans(this, pixel, disc.getHalfWidth(1) == 1, matches);
+		return RegionSearch.growRuns(this, pixel, disc, matches);
 	}
 
 	/**
@@ -458,22 +743,26 @@ public class Layer implements BitMask {
 	 * @return see above
 	 */
 	public boolean isInBounds(Point pixel) {
-		return pixel.x > -1 && pixel.y > -1 && pixel.x < image.getWidth() && pixel.y < image.getHeight();
+		return pixel.x > -1 && pixel.y > -1 && pixel.x < width && pixel.y < height;
 	}
 
 	public boolean hasVisibleContent() {
-		for (int i = 0; i < getWidth(); i++)
-			for (int j = 0; j < getHeight(); j++)
-				if (Util.getAlpha(image.getRGB(i, j)) > 0)
+		for (int j = 0; j < height; j++) {
+			int row = offset + j * stride;
+			for (int i = row; i < row + width; i++)
+				if (Util.getAlpha(data[i]) > 0)
 					return true;
+		}
 		return false;
 	}
 
 	public void clearImage() {
-		Point pixel = new Point();
-		for (pixel.x = 0; pixel.x < getWidth(); pixel.x++)
-			for (pixel.y = 0; pixel.y < getHeight(); pixel.y++)
-				setPixel(pixel, ERASE_COLOR);
+		int rgb = ERASE_COLOR.getRGB();
+		for (int j = 0; j < height; j++) {
+			int row = offset + j * stride;
+			Arrays.fill(data, row, row + width, rgb);
+		}
+		markModified();
 	}
 
 	/**
@@ -482,10 +771,12 @@ public class Layer implements BitMask {
 	 * @return the layer
 	 */
 	public Layer rotatedCW() {
-		Layer rotated = new Layer(getHeight(), getWidth());
-		for (int i = 0; i < getWidth(); i++)
-			for (int j = 0; j < getHeight(); j++)
-				rotated.image.setRGB(j, i, image.getRGB(i, getHeight() - 1 - j));
+		Layer rotated = new Layer(height, width);
+		for (int i = 0; i < width; i++) {
+			int row = rotated.offset + i * rotated.stride;
+			for (int j = 0; j < height; j++)
+				rotated.data[row + j] = data[offset + (height - 1 - j) * stride + i];
+		}
 		return rotated;
 	}
 
@@ -495,51 +786,94 @@ public class Layer implements BitMask {
 	 * @return the layer
 	 */
 	public Layer rotatedCCW() {
-		Layer rotated = new Layer(getHeight(), getWidth());
-		for (int i = 0; i < getWidth(); i++)
-			for (int j = 0; j < getHeight(); j++)
-				rotated.image.setRGB(j, i, image.getRGB(getWidth() - 1 - i, j));
+		Layer rotated = new Layer(height, width);
+		for (int i = 0; i < width; i++) {
+			int row = rotated.offset + i * rotated.stride;
+			for (int j = 0; j < height; j++)
+				rotated.data[row + j] = data[offset + j * stride + width - 1 - i];
+		}
 		return rotated;
 	}
 
 	public void reflectLeftRight() {
 		int rgb;
-		for (int i = 0; i < getWidth() / 2; i++) {
-			for (int j = 0; j < getHeight(); j++) {
-				rgb = image.getRGB(i, j);
-				image.setRGB(i, j, image.getRGB(getWidth() - 1 - i, j));
-				image.setRGB(getWidth() - 1 - i, j, rgb);
+		for (int j = 0; j < height; j++) {
+			int left = offset + j * stride, right = left + width - 1;
+			for (; left < right; left++, right--) {
+				rgb = data[left];
+				data[left] = data[right];
+				data[right] = rgb;
 			}
 		}
+		markModified();
 	}
 
 	public void reflectUpDown() {
-		int rgb;
-		for (int i = 0; i < getWidth(); i++) {
-			for (int j = 0; j < getHeight() / 2; j++) {
-				rgb = image.getRGB(i, j);
-				image.setRGB(i, j, image.getRGB(i, getHeight() - 1 - j));
-				image.setRGB(i, getHeight() - 1 - j, rgb);
-			}
+		int[] temp = new int[width];
+		for (int j = 0; j < height / 2; j++) {
+			int top = offset + j * stride, bottom = offset + (height - 1 - j) * stride;
+			System.arraycopy(data, top, temp, 0, width);
+			System.arraycopy(data, bottom, data, top, width);
+			System.arraycopy(temp, 0, data, bottom, width);
 		}
+		markModified();
 	}
 
 	/**
-	 * Creates a new layer from this one, scaled up or down as specified. The new layer is not a view of this one.
+	 * Creates a new layer from this one, scaled up or down as specified. Pixels are scaled by nearest neighbor, as in
+	 * {@link Scaler#nearest(Scaler.Pixels, Scaler.Pixels)}. The new layer is not a view of this one.
 	 * 
 	 * @param sx scale x
 	 * @param sy scale y
 	 * @return the layer
 	 */
 	public Layer scaled(float sx, float sy) {
+		return scaled(sx, sy, ScaleFilter.NEAREST);
+	}
+
+	/**
+	 * Creates a new layer from this one, scaled up or down as specified. The given filter magnifies the layer as many
+	 * times as it fits within the new size, and the result is then scaled the rest of the way by nearest neighbor, so
+	 * that e.g. Scale2x at a scale of 4 is applied twice. The new layer is not a view of this one.
+	 * 
+	 * @param sx     scale x
+	 * @param sy     scale y
+	 * @param filter the filter
+	 * @return the layer
+	 */
+	public Layer scaled(float sx, float sy, ScaleFilter filter) {
 		var scaledSize = getScaledSize(sx, sy);
-		BufferedImage scaledIm = new BufferedImage(scaledSize.width, scaledSize.height, BufferedImage.TYPE_INT_ARGB);
-		var g = scaledIm.createGraphics();
-		var tf = new AffineTransform(1d * scaledSize.width / image.getWidth(), 0, 0,
-				1d * scaledSize.height / image.getHeight(), 0, 0);
-		g.drawImage(image, tf, null);
-		g.dispose();
-		return new Layer(scaledIm);
+		int k = filter.getFactor();
+		Layer magnified = this;
+		while (k > 1 && magnified.width * k <= scaledSize.width && magnified.height * k <= scaledSize.height) {
+			var next = new Layer(magnified.width * k, magnified.height * k);
+			filter.magnify(magnified.getPixels(), next.getPixels());
+			magnified = next;
+		}
+		if (magnified != this && magnified.getSize().equals(scaledSize))
+			return magnified;
+		var scaled = new Layer(scaledSize);
+		Scaler.nearest(magnified.getPixels(), scaled.getPixels());
+		return scaled;
+	}
+
+	/**
+	 * @return the pixels of this layer, within the backing array
+	 */
+	Scaler.Pixels getPixels() {
+		return new Scaler.Pixels(data, offset, stride, width, height);
+	}
+
+	/**
+	 * Creates a copy of this layer. The new layer is not a view of this one.
+	 * 
+	 * @return the layer
+	 */
+	public Layer copied() {
+		var copy = new Layer(width, height);
+		for (int j = 0; j < height; j++)
+			System.arraycopy(data, offset + j * stride, copy.data, copy.offset + j * copy.stride, width);
+		return copy;
 	}
 
 	/**
@@ -562,15 +896,16 @@ public class Layer implements BitMask {
 	 * @return a view of the region as a layer backed by this image
 	 */
 	public Layer shrinkwrapped() {
-		Point min = new Point(image.getWidth(), image.getHeight());
+		Point min = new Point(width, height);
 		Point max = new Point(-1, -1);
-		Point p = new Point();
-		for (p.x = 0; p.x < image.getWidth(); p.x++) {
-			for (p.y = 0; p.y < image.getHeight(); p.y++) {
-				int alpha = Util.getAlpha(getRGB(p));
-				if (alpha > 0) {
-					min.setLocation(Util.min(min, p));
-					max.setLocation(Util.max(max, p));
+		for (int j = 0; j < height; j++) {
+			int row = offset + j * stride;
+			for (int i = 0; i < width; i++) {
+				if (Util.getAlpha(data[row + i]) > 0) {
+					min.x = Math.min(min.x, i);
+					min.y = Math.min(min.y, j);
+					max.x = Math.max(max.x, i);
+					max.y = Math.max(max.y, j);
 				}
 			}
 		}
@@ -585,34 +920,56 @@ public class Layer implements BitMask {
 	 * @return the layer
 	 */
 	public Layer cropped(Point p1, Point p2) {
-		return new Layer(image.getSubimage(p1.x, p1.y, p2.x - p1.x + 1, p2.y - p1.y + 1));
+		return new Layer(image.getSubimage(p1.x, p1.y, p2.x - p1.x + 1, p2.y - p1.y + 1), this);
 	}
 
 	public Layer cropped(Point p, Dimension d) {
-		return new Layer(image.getSubimage(p.x, p.y, d.width, d.height));
+		return new Layer(image.getSubimage(p.x, p.y, d.width, d.height), this);
 	}
 
 	// Util Methods
 	public static interface ThingDoer {
-		void doThing(BufferedImage image, Point pixel);
+		/**
+		 * Does something at a pixel, which is guaranteed to be in bounds.
+		 * 
+		 * @param layer the layer, whose {@link Layer#getRGB(int, int)} and {@link Layer#setRGB(int, int, int)} may be
+		 *              used on the pixel
+		 * @param pixel the pixel
+		 */
+		void doThing(Layer layer, Point pixel);
 	}
 
 	/**
-	 * Performs a given action at each point in a specified circle.
+	 * Performs a given action at each point in a specified circle that is within this layer, one row span at a time
+	 * (see {@link CircleMask}), and then records the bounds of the circle as modified, once for the whole circle.
 	 * 
 	 * @param center center of circle
 	 * @param radius radius of circle (inclusive)
-	 * @param doer   map from (BufferedImage, Point) -> void
+	 * @param doer   map from (Layer, Point) -> void
 	 */
 	public void doThingInCircle(Point center, double radius, ThingDoer doer) {
-		int x0 = Util.floor(center.x - radius), y0 = Util.floor(center.y - radius);
-		Point p = new Point(x0, y0);
-		double radius2 = radius * radius;
-		for (p.x = x0; p.x <= center.x + radius; p.x++) {
-			for (p.y = y0; p.y <= center.y + radius; p.y++) {
-				if (Math.pow(p.x - center.x, 2) + Math.pow(p.y - center.y, 2) <= radius2 && isInBounds(p))
-					doer.doThing(image, p);
-			}
+		readThingInCircle(center, radius, doer);
+		int extent = CircleMask.ofRadius(radius).getExtent();
+		markModified(center.x - extent, center.y - extent, 2 * extent + 1, 2 * extent + 1);
+	}
+
+	/**
+	 * Performs a given action that only reads pixels at each point in a specified circle that is within this layer, as
+	 * in {@link #doThingInCircle(Point, double, ThingDoer)}, but without recording anything as modified.
+	 * 
+	 * @param center center of circle
+	 * @param radius radius of circle (inclusive)
+	 * @param doer   map from (Layer, Point) -> void, which must not set pixels
+	 */
+	public void readThingInCircle(Point center, double radius, ThingDoer doer) {
+		var disc = CircleMask.ofRadius(radius);
+		int y0 = Math.max(center.y - disc.getExtent(), 0), y1 = Math.min(center.y + disc.getExtent(), height - 1);
+		Point p = new Point();
+		for (p.y = y0; p.y <= y1; p.y++) {
+			int hw = disc.getHalfWidth(p.y - center.y);
+			int x0 = Math.max(center.x - hw, 0), x1 = Math.min(center.x + hw, width - 1);
+			for (p.x = x0; p.x <= x1; p.x++)
+				doer.doThing(this, p);
 		}
 	}
 
@@ -620,12 +977,7 @@ public class Layer implements BitMask {
 
 	@Override
 	public boolean get(int x, int y) {
-		return get(new Point(x, y));
-	}
-
-	@Override
-	public boolean get(Point pixel) {
-		return isInBounds(pixel) && Util.getAlpha(getRGB(pixel)) != 0;
+		return x > -1 && y > -1 && x < width && y < height && Util.getAlpha(getRGB(x, y)) != 0;
 	}
 
 }
\ No newline at end of file
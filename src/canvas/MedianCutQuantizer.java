@@ -0,0 +1,105 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Quantizes colors by median cut: starting from a box holding every color, the box with the widest range along any of
+ * r, g and b is repeatedly split along that axis at the weighted median, until there are enough boxes. Each box becomes
+ * the weighted mean of its colors.
+ */
+public class MedianCutQuantizer implements Quantizer {
+
+	@Override
+	public Result reduce(ColorHistogram h, int nColors) {
+		int n = h.size();
+		int[] order = new int[n]; // histogram indices, grouped by box
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		int[] starts = new int[nColors + 1]; // box b holds order[starts[b]] to order[starts[b + 1] - 1]
+		starts[1] = n;
+		int nBoxes = 1;
+		int[] ranges = new int[nColors], axes = new int[nColors]; // widest range of each box, and along which axis
+		measure(h, order, starts, 0, ranges, axes);
+
+		long[] keys = new long[n];
+		while (nBoxes < nColors) {
+			// find the box with the widest range along one axis
+			int widest = -1;
+			for (int b = 0; b < nBoxes; b++)
+				if (ranges[b] > 0 && (widest < 0 || ranges[b] > ranges[widest]))
+					widest = b;
+			if (widest < 0) // every box holds a single color
+				break;
+			int widestAxis = axes[widest];
+
+			// sort the box along the axis, ties broken by index so that the order is deterministic
+			int start = starts[widest], end = starts[widest + 1];
+			for (int j = start; j < end; j++)
+				keys[j] = (long) getComponent(h.getColor(order[j]), widestAxis) << 32 | order[j];
+			Arrays.sort(keys, start, end);
+			for (int j = start; j < end; j++)
+				order[j] = (int) keys[j];
+
+			// split after the weighted median, leaving at least one color on each side
+			long total = 0, half = 0;
+			for (int j = start; j < end; j++)
+				total += h.getCount(order[j]);
+			int split = start + 1;
+			for (int j = start; j < end - 1; j++) {
+				half += h.getCount(order[j]);
+				split = j + 1;
+				if (2 * half >= total)
+					break;
+			}
+
+			System.arraycopy(starts, widest + 1, starts, widest + 2, nBoxes - widest);
+			System.arraycopy(ranges, widest + 1, ranges, widest + 2, nBoxes - widest - 1);
+			System.arraycopy(axes, widest + 1, axes, widest + 2, nBoxes - widest - 1);
+			starts[widest + 1] = split;
+			nBoxes++;
+			measure(h, order, starts, widest, ranges, axes);
+			measure(h, order, starts, widest + 1, ranges, axes);
+		}
+
+		int[] palette = new int[nBoxes];
+		for (int b = 0; b < nBoxes; b++) {
+			long r = 0, g = 0, bl = 0, w = 0;
+			for (int j = starts[b]; j < starts[b + 1]; j++) {
+				int i = order[j], rgb = h.getColor(i), count = h.getCount(i);
+				r += (long) count * (rgb >>> 16 & 0xff);
+				g += (long) count * (rgb >>> 8 & 0xff);
+				bl += (long) count * (rgb & 0xff);
+				w += count;
+			}
+			palette[b] = 0xff000000 | (int) ((r + w / 2) / w) << 16 | (int) ((g + w / 2) / w) << 8
+					| (int) ((bl + w / 2) / w);
+		}
+		return new Result(palette, Quantizer.assignNearest(h, palette));
+	}
+
+	private static int getComponent(int rgb, int axis) {
+		return rgb >>> (16 - 8 * axis) & 0xff;
+	}
+
+	/**
+	 * Finds the axis along which the given box is widest, and its range along that axis.
+	 */
+	private static void measure(ColorHistogram h, int[] order, int[] starts, int b, int[] ranges, int[] axes) {
+		int[] min = { 255, 255, 255 }, max = { 0, 0, 0 };
+		for (int j = starts[b]; j < starts[b + 1]; j++) {
+			int rgb = h.getColor(order[j]);
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = Math.min(min[axis], getComponent(rgb, axis));
+				max[axis] = Math.max(max[axis], getComponent(rgb, axis));
+			}
+		}
+		ranges[b] = -1;
+		for (int axis = 0; axis < 3; axis++) {
+			if (max[axis] - min[axis] > ranges[b]) {
+				ranges[b] = max[axis] - min[axis];
+				axes[b] = axis;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package canvas;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Quantizes colors with an octree: each color is filed under the bits of its r, g and b components, one bit of each
+ * per level, and the branches holding the fewest pixels are then folded into their parents until there are few enough
+ * leaves. Each leaf becomes the weighted mean of its colors.
+ */
+public class OctreeQuantizer implements Quantizer {
+
+	private static final int DEPTH = 8;
+
+	private static class Node {
+		Node(int level) {
+			this.level = level;
+		}
+
+		final int level;
+		final Node[] children = new Node[8];
+		long r, g, b, count; // weighted sums of the colors under this node
+		boolean isLeaf;
+	}
+
+	@Override
+	public Result reduce(ColorHistogram h, int nColors) {
+		// file every color under a leaf at the bottom of the tree
+		Node root = new Node(0);
+		List<List<Node>> levels = new ArrayList<>(); // nodes with children, by level
+		for (int level = 0; level < DEPTH; level++)
+			levels.add(new ArrayList<>());
+		levels.get(0).add(root);
+		int nLeaves = 0;
+		for (int i = 0; i < h.size(); i++) {
+			int rgb = h.getColor(i), count = h.getCount(i);
+			Node node = root;
+			add(node, rgb, count);
+			for (int level = 0; level < DEPTH; level++) {
+				int c = getChildIndex(rgb, level);
+				if (node.children[c] == null) {
+					node.children[c] = new Node(level + 1);
+					if (level + 1 < DEPTH)
+						levels.get(level + 1).add(node.children[c]);
+					else
+						nLeaves++;
+				}
+				node = node.children[c];
+				add(node, rgb, count);
+			}
+			node.isLeaf = true;
+		}
+
+		// fold the lightest branches of the deepest level into their parents until there are few enough leaves
+		for (int level = DEPTH - 1; level >= 0 && nLeaves > nColors; level--) {
+			var nodes = levels.get(level);
+			nodes.sort(Comparator.comparingLong(node -> node.count)); // stable, so ties keep their order
+			for (int j = 0; j < nodes.size() && nLeaves > nColors; j++) {
+				Node node = nodes.get(j);
+				int nChildren = 0;
+				for (int c = 0; c < 8; c++) {
+					if (node.children[c] != null) {
+						node.children[c] = null;
+						nChildren++;
+					}
+				}
+				node.isLeaf = true;
+				nLeaves -= nChildren - 1;
+			}
+		}
+
+		int[] palette = new int[nLeaves];
+		fillPalette(root, palette, new int[1]);
+		return new Result(palette, Quantizer.assignNearest(h, palette));
+	}
+
+	private static void add(Node node, int rgb, int count) {
+		node.r += (long) count * (rgb >>> 16 & 0xff);
+		node.g += (long) count * (rgb >>> 8 & 0xff);
+		node.b += (long) count * (rgb & 0xff);
+		node.count += count;
+	}
+
+	/**
+	 * Returns which child of a node at the given level a color belongs under.
+	 */
+	private static int getChildIndex(int rgb, int level) {
+		int shift = 7 - level;
+		return (rgb >>> 16 + shift & 1) << 2 | (rgb >>> 8 + shift & 1) << 1 | rgb >>> shift & 1;
+	}
+
+	private static void fillPalette(Node node, int[] palette, int[] next) {
+		if (node.isLeaf) {
+			long w = node.count;
+			palette[next[0]++] = 0xff000000 | (int) ((node.r + w / 2) / w) << 16 | (int) ((node.g + w / 2) / w) << 8
+					| (int) ((node.b + w / 2) / w);
+			return;
+		}
+		for (Node child : node.children)
+			if (child != null)
+				fillPalette(child, palette, next);
+	}
+
+}
@@ -0,0 +1,93 @@
+package canvas;
+
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Traces and caches the outlines of bitmasks. See {@link BitMask#getOutline(BitMask)}.
+ */
+class Outline {
+
+	private Outline() {
+	}
+
+	private static record Traced(long version, Path2D path) {
+	}
+
+	// outlines of masks that track their version, dropped along with the masks
+	private static final WeakHashMap<BitMask, Traced> cache = new WeakHashMap<>();
+
+	/**
+	 * Returns the outline of the given bitmask, tracing it only if the mask changed since it was last traced.
+	 * 
+	 * @param b a bitmask
+	 * @return the outline
+	 */
+	static Path2D of(BitMask b) {
+		long version = b.getVersion();
+		if (version < 0)
+			return trace(b);
+		synchronized (cache) {
+			var traced = cache.get(b);
+			if (traced == null || traced.version() != version) {
+				traced = new Traced(version, trace(b));
+				cache.put(b, traced);
+			}
+			return traced.path();
+		}
+	}
+
+	/**
+	 * Traces the outline of the given bitmask one row at a time. Horizontal edges are found by comparing each row with
+	 * the one above it, and vertical edges by comparing adjacent pixels within a row, extending them down through
+	 * subsequent rows for as long as they continue.
+	 * 
+	 * @param b a bitmask
+	 * @return the outline
+	 */
+	static Path2D trace(BitMask b) {
+		int w = b.getWidth(), h = b.getHeight();
+		var path = new Path2D.Float();
+		boolean[] above = new boolean[w], row = new boolean[w];
+		int[] verticalStart = new int[w + 1]; // row where the vertical edge at each x started, or -1
+		Arrays.fill(verticalStart, -1);
+
+		for (int y = 0; y <= h; y++) {
+			for (int x = 0; x < w; x++)
+				row[x] = y < h && b.get(x, y);
+
+			// horizontal edges along the top of this row
+			for (int x = 0; x < w;) {
+				if (row[x] == above[x]) {
+					x++;
+					continue;
+				}
+				int start = x;
+				while (x < w && row[x] != above[x])
+					x++;
+				path.moveTo(start, y);
+				path.lineTo(x, y);
+			}
+
+			// vertical edges along the left of each pixel in this row, and the right of the last
+			for (int x = 0; x <= w; x++) {
+				boolean left = x > 0 && row[x - 1], right = x < w && row[x];
+				if (left != right) {
+					if (verticalStart[x] < 0)
+						verticalStart[x] = y;
+				} else if (verticalStart[x] >= 0) {
+					path.moveTo(x, verticalStart[x]);
+					path.lineTo(x, y);
+					verticalStart[x] = -1;
+				}
+			}
+
+			var temp = above;
+			above = row;
+			row = temp;
+		}
+		return path;
+	}
+
+}
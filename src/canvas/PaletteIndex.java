@@ -0,0 +1,214 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Finds the color of a palette nearest to a given color, by squared distance between r,g,b components. Ties go to the
+ * earliest color of the palette, so the answer is always the same as that of a linear scan.
+ * <p>
+ * {@link #nearest(int)} searches a k-d tree of the palette, which suits a few lookups or a small palette.
+ * {@link #map(int)} is meant for remapping many pixels: colors are binned on a 32x32x32 grid, and the first lookup in a
+ * bin finds the few palette colors that could be nearest to any color in it, so that later lookups in the bin only
+ * compare against those. The grid is filled in as it is used, so an index is not safe to share between threads.
+ */
+public class PaletteIndex {
+
+	private static final int BIN_BITS = 3, BIN_SIZE = 1 << BIN_BITS, SIDE = 256 >> BIN_BITS;
+
+	/**
+	 * @param palette the colors of the palette; alpha is ignored
+	 */
+	public PaletteIndex(int[] palette) {
+		if (palette.length == 0)
+			throw new IllegalArgumentException("Palette is empty");
+		size = palette.length;
+		components = new int[3 * size];
+		for (int i = 0; i < size; i++) {
+			components[3 * i] = palette[i] >>> 16 & 0xff;
+			components[3 * i + 1] = palette[i] >>> 8 & 0xff;
+			components[3 * i + 2] = palette[i] & 0xff;
+		}
+		tree = new int[size];
+		for (int i = 0; i < size; i++)
+			tree[i] = i;
+		axes = new byte[size];
+		build(0, size);
+	}
+
+	// fields
+
+	private final int size;
+	private final int[] components; // r,g,b of each palette color, 3 to a color
+
+	// The k-d tree: the subtree over tree[lo] to tree[hi - 1] has its root at the middle, splitting along the axis
+	// stored there, with the smaller half of the colors before it and the larger after.
+	private final int[] tree;
+	private final byte[] axes;
+
+	// for each bin of the grid, the palette colors that may be nearest to a color in it, or null if not yet known
+	private final int[][] bins = new int[SIDE * SIDE * SIDE][];
+
+	// methods
+
+	/**
+	 * @return the number of colors in the palette
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the index of the palette color nearest to the given color, searching the k-d tree.
+	 * 
+	 * @param rgb the color; alpha is ignored
+	 * @return the index into the palette
+	 */
+	public int nearest(int rgb) {
+		int[] best = { -1, Integer.MAX_VALUE }; // index and squared distance of the nearest color found so far
+		search(0, size, rgb >>> 16 & 0xff, rgb >>> 8 & 0xff, rgb & 0xff, best);
+		return best[0];
+	}
+
+	/**
+	 * Returns the index of the palette color nearest to the given color, using the grid of bins. Same as
+	 * {@link #nearest(int)}, but faster when remapping many pixels.
+	 * 
+	 * @param rgb the color; alpha is ignored
+	 * @return the index into the palette
+	 */
+	public int map(int rgb) {
+		int r = rgb >>> 16 & 0xff, g = rgb >>> 8 & 0xff, b = rgb & 0xff;
+		int bin = ((r >> BIN_BITS) * SIDE + (g >> BIN_BITS)) * SIDE + (b >> BIN_BITS);
+		int[] candidates = bins[bin];
+		if (candidates == null)
+			candidates = bins[bin] = findCandidates(r & -BIN_SIZE, g & -BIN_SIZE, b & -BIN_SIZE);
+		if (candidates.length == 1)
+			return candidates[0];
+		int best = -1, bestDist = Integer.MAX_VALUE;
+		for (int i : candidates) {
+			int dist = distance(i, r, g, b);
+			if (dist < bestDist) {
+				bestDist = dist;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private int distance(int i, int r, int g, int b) {
+		int dr = components[3 * i] - r, dg = components[3 * i + 1] - g, db = components[3 * i + 2] - b;
+		return dr * dr + dg * dg + db * db;
+	}
+
+	/**
+	 * Sorts tree[lo] to tree[hi - 1] into a subtree, splitting each part along the axis in which its colors are most
+	 * spread out.
+	 */
+	private void build(int lo, int hi) {
+		if (hi - lo <= 1)
+			return;
+		int[] min = { 255, 255, 255 }, max = { 0, 0, 0 };
+		for (int j = lo; j < hi; j++) {
+			for (int axis = 0; axis < 3; axis++) {
+				min[axis] = Math.min(min[axis], components[3 * tree[j] + axis]);
+				max[axis] = Math.max(max[axis], components[3 * tree[j] + axis]);
+			}
+		}
+		int axis = 0;
+		for (int a = 1; a < 3; a++)
+			if (max[a] - min[a] > max[axis] - min[axis])
+				axis = a;
+
+		// sort along the axis, ties broken by index
+		long[] keys = new long[hi - lo];
+		for (int j = lo; j < hi; j++)
+			keys[j - lo] = (long) components[3 * tree[j] + axis] << 32 | tree[j];
+		Arrays.sort(keys);
+		for (int j = lo; j < hi; j++)
+			tree[j] = (int) keys[j - lo];
+
+		int mid = (lo + hi) >>> 1;
+		axes[mid] = (byte) axis;
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	private void search(int lo, int hi, int r, int g, int b, int[] best) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1, i = tree[mid];
+		int dist = distance(i, r, g, b);
+		if (dist < best[1] || dist == best[1] && i < best[0]) {
+			best[0] = i;
+			best[1] = dist;
+		}
+		if (hi - lo == 1)
+			return;
+
+		int axis = axes[mid];
+		int diff = (axis == 0 ? r : axis == 1 ? g : b) - components[3 * i + axis];
+		// search the near side first; the far side can only hold a nearer color if the splitting plane is near enough
+		if (diff < 0) {
+			search(lo, mid, r, g, b, best);
+			if (diff * diff <= best[1])
+				search(mid + 1, hi, r, g, b, best);
+		} else {
+			search(mid + 1, hi, r, g, b, best);
+			if (diff * diff <= best[1])
+				search(lo, mid, r, g, b, best);
+		}
+	}
+
+	/**
+	 * Returns, in order, the palette colors that may be nearest to some color in the bin starting at the given
+	 * components. No color in the bin is farther from the palette color nearest the bin's center than that color's
+	 * farthest distance from the bin, so only palette colors within that distance of the bin can be nearest.
+	 */
+	private int[] findCandidates(int r0, int g0, int b0) {
+		int[] lo = { r0, g0, b0 };
+		int center = nearest((r0 + BIN_SIZE / 2) << 16 | (g0 + BIN_SIZE / 2) << 8 | b0 + BIN_SIZE / 2);
+		int limit = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			int c = components[3 * center + axis];
+			int far = Math.max(c - lo[axis], lo[axis] + BIN_SIZE - 1 - c);
+			limit += far * far;
+		}
+		int[] candidates = new int[size];
+		int n = collect(0, size, lo, limit, candidates, 0);
+		candidates = Arrays.copyOf(candidates, n);
+		Arrays.sort(candidates);
+		return candidates;
+	}
+
+	/**
+	 * Adds the colors of the subtree over tree[lo] to tree[hi - 1] whose squared distance from the bin with the given
+	 * lowest components is at most the given limit to the given array, starting at the given position.
+	 * 
+	 * @return the position after the last color added
+	 */
+	private int collect(int lo, int hi, int[] bin, int limit, int[] found, int n) {
+		if (lo >= hi)
+			return n;
+		int mid = (lo + hi) >>> 1, i = tree[mid];
+		int dist = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			int c = components[3 * i + axis], low = bin[axis], high = low + BIN_SIZE - 1;
+			int near = c < low ? low - c : c > high ? c - high : 0;
+			dist += near * near;
+		}
+		if (dist <= limit)
+			found[n++] = i;
+		if (hi - lo == 1)
+			return n;
+
+		// colors before the root are no greater along its axis than it, and colors after are no less
+		int axis = axes[mid], split = components[3 * i + axis];
+		int below = bin[axis] - split, above = split - (bin[axis] + BIN_SIZE - 1);
+		if (below <= 0 || below * below <= limit)
+			n = collect(lo, mid, bin, limit, found, n);
+		if (above <= 0 || above * above <= limit)
+			n = collect(mid + 1, hi, bin, limit, found, n);
+		return n;
+	}
+
+}
@@ -2,11 +2,29 @@ package canvas;
 
 import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 import util.Util;
 
-public class PixelMask implements BitMask {
+/**
+ * A mutable bitmask, packed 64 pixels to a <code>long</code>. Each row starts on a new word, and bits past the width
+ * of the mask are always 0. The mask keeps track of a box containing every set pixel, so that operations on sparse
+ * masks only visit the rows and words that can hold set pixels.
+ */
+public class PixelMask implements RegionMask {
+
+	/**
+	 * Returns how many bytes a pixel mask of the given size occupies.
+	 * 
+	 * @param width  width of the mask
+	 * @param height height of the mask
+	 * @return the number of bytes
+	 */
+	public static long estimateMemoryBytes(int width, int height) {
+		return 16 + 8L * ((width + 63) >>> 6) * height;
+	}
 
 	@FunctionalInterface
 	public static interface Condition {
@@ -29,48 +47,145 @@ public class PixelMask implements BitMask {
 	}
 
 	public PixelMask(int width, int height) {
-		mask = new boolean[height][width];
 		this.width = width;
 		this.height = height;
+		wordsPerRow = (width + 63) >>> 6;
+		words = new long[wordsPerRow * height];
+		clearBounds();
 	}
 
 	public PixelMask(Dimension d) {
 		this(d.width, d.height);
 	}
 
-	private final boolean[][] mask;
+	// fields
+
 	public final int width, height;
+	private final int wordsPerRow;
+	private final long[] words; // pixel (x, y) is bit x % 64 of words[y * wordsPerRow + x / 64]
+	private long version = 0; // counts modifications
+
+	// box containing every set pixel (possibly loosely, unless boundsExact); empty if x0 >= x1
+	private int boundsX0, boundsY0, boundsX1, boundsY1; // inclusive, exclusive
+	private boolean boundsExact;
+
+	// methods
 
 	public void match(BufferedImage image, Point x0, Condition c) {
 		Point p = new Point();
 		for (int j = 0; j < height; j++) {
 			for (int i = 0; i < width; i++) {
 				p.setLocation(x0.x + i, x0.y + j);
-				mask[j][i] = c.accept(p, image.getRGB(p.x, p.y));
+				set(i, j, c.accept(p, image.getRGB(p.x, p.y)));
 			}
 		}
 	}
 
 	/**
-	 * Performs the given action everywhere that this mask is true. (The action is passed Points where the mask is true,
-	 * offset by x0.)
+	 * Performs the given action everywhere that this mask is true, row by row. (The action is passed Points where the
+	 * mask is true, offset by x0.) Only words that hold set pixels are visited.
 	 * 
 	 * @param offset added to each index before performing action there
 	 * @param action an action
 	 */
+	@Override
 	public void doAction(Point offset, Action action) {
+		if (isBoundsEmpty())
+			return;
 		Point pixel = new Point();
-		for (int j = 0; j < height; j++) {
-			for (int i = 0; i < width; i++) {
-				if (mask[j][i]) {
-					pixel.setLocation(offset.x + i, offset.y + j);
+		int w0 = boundsX0 >>> 6, w1 = (boundsX1 + 63) >>> 6;
+		for (int j = boundsY0; j < boundsY1; j++) {
+			int row = j * wordsPerRow;
+			for (int w = w0; w < w1; w++) {
+				long word = words[row + w];
+				while (word != 0) {
+					pixel.setLocation(offset.x + (w << 6) + Long.numberOfTrailingZeros(word), offset.y + j);
 					action.doAction(pixel);
+					word &= word - 1;
 				}
 			}
 		}
 	}
 
-	// not sure if this works properly
+	@Override
+	public void doRuns(RunAction action) {
+		if (isBoundsEmpty())
+			return;
+		for (int j = boundsY0; j < boundsY1; j++) {
+			int row = j * wordsPerRow;
+			for (int x = nextSetBit(row, boundsX0); x >= 0 && x < boundsX1;) {
+				int end = nextClearBit(row, x);
+				action.doRun(j, x, end);
+				x = nextSetBit(row, end);
+			}
+		}
+	}
+
+	/**
+	 * Returns the first set pixel at or after the given x in the row starting at the given word, or -1 if none is.
+	 */
+	private int nextSetBit(int row, int x) {
+		if (x >= width)
+			return -1;
+		int w = x >>> 6;
+		long word = words[row + w] & -1L << x;
+		while (word == 0) {
+			if (++w >= wordsPerRow)
+				return -1;
+			word = words[row + w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Returns the first clear pixel at or after the given x in the row starting at the given word, or the width if
+	 * none is.
+	 */
+	private int nextClearBit(int row, int x) {
+		if (x >= width)
+			return width;
+		int w = x >>> 6;
+		long word = ~words[row + w] & -1L << x;
+		while (word == 0) {
+			if (++w >= wordsPerRow)
+				return width;
+			word = ~words[row + w];
+		}
+		return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(word));
+	}
+
+	@Override
+	public int countRuns() {
+		if (isBoundsEmpty())
+			return 0;
+		int runs = 0, w0 = boundsX0 >>> 6, w1 = (boundsX1 + 63) >>> 6;
+		for (int j = boundsY0; j < boundsY1; j++) {
+			int row = j * wordsPerRow;
+			long carry = 0; // top bit of the previous word
+			for (int w = w0; w < w1; w++) {
+				long word = words[row + w];
+				runs += Long.bitCount(word & ~(word << 1 | carry)); // pixels set with the one before clear
+				carry = word >>> 63;
+			}
+		}
+		return runs;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return estimateMemoryBytes(width, height);
+	}
+
+	@Override
+	public PixelMask toPixelMask() {
+		return this;
+	}
+
+	@Override
+	public RunMask toRunMask() {
+		return RunMask.of(this);
+	}
+
 	@FunctionalInterface
 	public static interface Merger {
 		boolean merge(boolean b1, boolean b2);
@@ -84,6 +199,17 @@ public class PixelMask implements BitMask {
 		return merge(mask1, mask2, offset2, (b1, b2) -> b1 && b2);
 	}
 
+	/**
+	 * Combines two masks pixel by pixel. The result is big enough to hold both masks, with the second offset from the
+	 * first by the given amount; pixels outside a mask count as false. The merger is only evaluated once for each of
+	 * the four combinations of inputs, and the masks are then combined a word at a time.
+	 * 
+	 * @param mask1   a mask
+	 * @param mask2   another mask
+	 * @param offset2 location of mask2's origin relative to mask1's
+	 * @param merger  how to combine a pixel of each mask
+	 * @return the combined mask
+	 */
 	public static PixelMask merge(PixelMask mask1, PixelMask mask2, Point offset2, Merger merger) {
 		Point offset1 = Util.times(Util.min(new Point(), offset2), -1);
 		offset2 = Util.max(new Point(), offset2);
@@ -92,19 +218,55 @@ public class PixelMask implements BitMask {
 		int height = Math.max(mask1.height + offset1.y, mask2.height + offset2.y);
 		PixelMask merged = new PixelMask(width, height);
 
-		for (int i = 0; i < width; i++)
-			for (int j = 0; j < height; j++)
-				merged.set(i, j,
-						merger.merge(mask1.get(i - offset1.x, j - offset1.y), mask2.get(i - offset2.x, j - offset2.y)));
+		// truth table of merger, as masks to apply to both words
+		long tt = merger.merge(true, true) ? -1 : 0, tf = merger.merge(true, false) ? -1 : 0;
+		long ft = merger.merge(false, true) ? -1 : 0, ff = merger.merge(false, false) ? -1 : 0;
 
+		for (int j = 0; j < height; j++) {
+			int row = j * merged.wordsPerRow;
+			for (int w = 0; w < merged.wordsPerRow; w++) {
+				int x = w << 6;
+				long a = mask1.getWord(x - offset1.x, j - offset1.y), b = mask2.getWord(x - offset2.x, j - offset2.y);
+				merged.words[row + w] = tt & a & b | tf & a & ~b | ft & ~a & b | ff & ~a & ~b;
+			}
+			if (merged.wordsPerRow > 0)
+				merged.words[row + merged.wordsPerRow - 1] &= merged.getLastWordMask();
+		}
+		merged.boundsX1 = width;
+		merged.boundsY1 = height;
+		merged.shrinkBounds();
 		return merged;
 	}
 
+	/**
+	 * Returns 64 pixels of the given row, starting at the given x, as the bits of a word. Pixels outside the mask are
+	 * 0.
+	 * 
+	 * @param x x coordinate of the pixel in bit 0, which need not be a multiple of 64 or in bounds
+	 * @param y the row
+	 * @return the word
+	 */
+	private long getWord(int x, int y) {
+		if (y < 0 || y >= height)
+			return 0;
+		int w = Math.floorDiv(x, 64), shift = Math.floorMod(x, 64);
+		long lo = getAlignedWord(w, y) >>> shift;
+		return shift == 0 ? lo : lo | getAlignedWord(w + 1, y) << (64 - shift);
+	}
+
+	private long getAlignedWord(int w, int y) {
+		return w < 0 || w >= wordsPerRow ? 0 : words[y * wordsPerRow + w];
+	}
+
+	private long getLastWordMask() {
+		return width % 64 == 0 ? -1 : (1L << width % 64) - 1;
+	}
+
 	// getters and setters
 
 	@Override
 	public boolean get(int x, int y) {
-		return !isOutOfBounds(x, y) && mask[y][x];
+		return !isOutOfBounds(x, y) && (words[y * wordsPerRow + (x >>> 6)] & 1L << x) != 0;
 	}
 
 	public void set(Point p, boolean b) {
@@ -112,8 +274,51 @@ public class PixelMask implements BitMask {
 	}
 
 	public void set(int x, int y, boolean b) {
-		if (!isOutOfBounds(x, y))
-			mask[y][x] = b;
+		if (isOutOfBounds(x, y))
+			return;
+		int i = y * wordsPerRow + (x >>> 6);
+		if (b) {
+			words[i] |= 1L << x;
+			includeInBounds(x, y, x + 1, y + 1);
+		} else if ((words[i] & 1L << x) != 0) {
+			words[i] &= ~(1L << x);
+			boundsExact = false;
+		}
+		version++;
+	}
+
+	/**
+	 * Sets or clears a run of pixels in a row, a word at a time.
+	 * 
+	 * @param y  the row
+	 * @param x0 first pixel of the run
+	 * @param x1 pixel after the last of the run
+	 * @param b  value to set the pixels to
+	 */
+	public void setRun(int y, int x0, int x1, boolean b) {
+		x0 = Math.max(x0, 0);
+		x1 = Math.min(x1, width);
+		if (y < 0 || y >= height || x0 >= x1)
+			return;
+		int row = y * wordsPerRow;
+		for (int w = x0 >>> 6; w <= (x1 - 1) >>> 6; w++) {
+			int lo = Math.max(x0, w << 6), hi = Math.min(x1, (w + 1) << 6);
+			long m = -1L << lo & -1L >>> (64 - (hi - (w << 6)));
+			if (b)
+				words[row + w] |= m;
+			else
+				words[row + w] &= ~m;
+		}
+		if (b)
+			includeInBounds(x0, y, x1, y + 1);
+		else
+			boundsExact = false;
+		version++;
+	}
+
+	@Override
+	public long getVersion() {
+		return version;
 	}
 
 	@Override
@@ -130,6 +335,75 @@ public class PixelMask implements BitMask {
 		return x < 0 || y < 0 || x >= width || y >= height;
 	}
 
+	/**
+	 * Returns the smallest rectangle containing every set pixel.
+	 * 
+	 * @return the rectangle, or null if no pixels are set
+	 */
+	public Rectangle getBounds() {
+		if (!boundsExact)
+			shrinkBounds();
+		return isBoundsEmpty() ? null : new Rectangle(boundsX0, boundsY0, boundsX1 - boundsX0, boundsY1 - boundsY0);
+	}
+
+	public boolean isEmpty() {
+		return getBounds() == null;
+	}
+
+	private boolean isBoundsEmpty() {
+		return boundsX0 >= boundsX1;
+	}
+
+	private void includeInBounds(int x0, int y0, int x1, int y1) {
+		if (isBoundsEmpty()) {
+			boundsX0 = x0;
+			boundsY0 = y0;
+			boundsX1 = x1;
+			boundsY1 = y1;
+		} else {
+			boundsX0 = Math.min(boundsX0, x0);
+			boundsY0 = Math.min(boundsY0, y0);
+			boundsX1 = Math.max(boundsX1, x1);
+			boundsY1 = Math.max(boundsY1, y1);
+		}
+	}
+
+	private void clearBounds() {
+		boundsX0 = boundsY0 = boundsX1 = boundsY1 = 0;
+		boundsExact = true;
+	}
+
+	/**
+	 * Shrinks the bounding box to fit the set pixels exactly, looking only within the current box.
+	 */
+	private void shrinkBounds() {
+		int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = -1, y1 = -1;
+		if (!isBoundsEmpty()) {
+			int w0 = boundsX0 >>> 6, w1 = (boundsX1 + 63) >>> 6;
+			for (int j = boundsY0; j < boundsY1; j++) {
+				int row = j * wordsPerRow;
+				for (int w = w0; w < w1; w++) {
+					long word = words[row + w];
+					if (word == 0)
+						continue;
+					x0 = Math.min(x0, (w << 6) + Long.numberOfTrailingZeros(word));
+					x1 = Math.max(x1, (w << 6) + 64 - Long.numberOfLeadingZeros(word));
+					y0 = Math.min(y0, j);
+					y1 = j + 1;
+				}
+			}
+		}
+		if (x1 < 0) {
+			clearBounds();
+		} else {
+			boundsX0 = x0;
+			boundsY0 = y0;
+			boundsX1 = x1;
+			boundsY1 = y1;
+			boundsExact = true;
+		}
+	}
+
 	// other operations
 	/**
 	 * Flips every bit.
@@ -137,9 +411,29 @@ public class PixelMask implements BitMask {
 	 * @return this mask
 	 */
 	public PixelMask invert() {
-		for (int i = 0; i < width; i++)
-			for (int j = 0; j < height; j++)
-				mask[j][i] = !mask[j][i];
+		if (height == 0 || wordsPerRow == 0)
+			return this;
+		for (int i = 0; i < words.length; i++)
+			words[i] = ~words[i];
+		for (int i = wordsPerRow - 1; i < words.length; i += wordsPerRow)
+			words[i] &= getLastWordMask();
+		boundsX0 = boundsY0 = 0;
+		boundsX1 = width;
+		boundsY1 = height;
+		shrinkBounds();
+		version++;
+		return this;
+	}
+
+	/**
+	 * Clears every bit.
+	 * 
+	 * @return this mask
+	 */
+	public PixelMask clear() {
+		Arrays.fill(words, 0);
+		clearBounds();
+		version++;
 		return this;
 	}
 }
@@ -0,0 +1,74 @@
+package canvas;
+
+/**
+ * Chooses a small palette for the colors of a {@link ColorHistogram}, and which palette color stands for each color of
+ * the histogram. Quantizers are deterministic: the same histogram always gives the same result.
+ */
+public interface Quantizer {
+
+	/**
+	 * A reduced palette.
+	 * 
+	 * @param palette    the colors of the palette, opaque
+	 * @param assignment index into the palette of the color standing for each color of the histogram
+	 */
+	public static record Result(int[] palette, int[] assignment) {
+	}
+
+	/**
+	 * Reduces the colors of the given histogram to at most the given number. Histograms that already have few enough
+	 * colors are returned as they are.
+	 * 
+	 * @param h       the histogram
+	 * @param nColors largest number of colors in the palette
+	 * @return the result
+	 */
+	default Result quantize(ColorHistogram h, int nColors) {
+		if (nColors < 1)
+			throw new IllegalArgumentException("Cannot reduce %d colors down to %d".formatted(h.size(), nColors));
+		return h.size() <= nColors ? exact(h) : reduce(h, nColors);
+	}
+
+	/**
+	 * Reduces the colors of the given histogram to at most the given number, which is less than the number of colors
+	 * in the histogram.
+	 * 
+	 * @param h       the histogram
+	 * @param nColors largest number of colors in the palette
+	 * @return the result
+	 */
+	Result reduce(ColorHistogram h, int nColors);
+
+	/**
+	 * Returns the index of the nearest color of the given palette to each color of the given histogram. Quantizers
+	 * that group colors into boxes use this so that colors near the edge of a box go to the nearest palette color,
+	 * whichever box it came from.
+	 * 
+	 * @param h       the histogram
+	 * @param palette the palette
+	 * @return index into the palette for each color of the histogram
+	 */
+	public static int[] assignNearest(ColorHistogram h, int[] palette) {
+		var index = new PaletteIndex(palette);
+		int[] assignment = new int[h.size()];
+		for (int i = 0; i < h.size(); i++)
+			assignment[i] = index.nearest(h.getColor(i));
+		return assignment;
+	}
+
+	/**
+	 * Returns the palette made of every color of the given histogram.
+	 * 
+	 * @param h the histogram
+	 * @return the result
+	 */
+	public static Result exact(ColorHistogram h) {
+		int[] palette = new int[h.size()], assignment = new int[h.size()];
+		for (int i = 0; i < h.size(); i++) {
+			palette[i] = h.getColor(i);
+			assignment[i] = i;
+		}
+		return new Result(palette, assignment);
+	}
+
+}
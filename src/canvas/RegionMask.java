@@ -0,0 +1,114 @@
+package canvas;
+
+import java.awt.Point;
+
+/**
+ * A bitmask that can be iterated over and combined with other masks, such as a selection. There are two
+ * representations: {@link PixelMask} stores a bit per pixel, and {@link RunMask} stores runs of set pixels. The static
+ * methods here pick whichever is cheaper for the density of the mask at hand.
+ */
+public interface RegionMask extends BitMask {
+
+	@FunctionalInterface
+	public static interface RunAction {
+		/**
+		 * Does something with a run of set pixels.
+		 * 
+		 * @param y  the row
+		 * @param x0 first pixel of the run
+		 * @param x1 pixel after the last of the run
+		 */
+		void doRun(int y, int x0, int x1);
+	}
+
+	/**
+	 * Performs the given action on every maximal run of set pixels, row by row, from left to right.
+	 * 
+	 * @param action an action
+	 */
+	void doRuns(RunAction action);
+
+	/**
+	 * Performs the given action everywhere that this mask is true, row by row. (The action is passed Points where the
+	 * mask is true, offset by the given amount.)
+	 * 
+	 * @param offset added to each index before performing action there
+	 * @param action an action
+	 */
+	default void doAction(Point offset, PixelMask.Action action) {
+		Point pixel = new Point();
+		doRuns((y, x0, x1) -> {
+			for (int x = x0; x < x1; x++) {
+				pixel.setLocation(offset.x + x, offset.y + y);
+				action.doAction(pixel);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of maximal runs of set pixels
+	 */
+	int countRuns();
+
+	/**
+	 * @return approximately how many bytes this mask occupies
+	 */
+	long getMemoryBytes();
+
+	/**
+	 * @return this mask as a {@link PixelMask}, which may be this mask itself
+	 */
+	PixelMask toPixelMask();
+
+	/**
+	 * @return this mask as a {@link RunMask}, which may be this mask itself
+	 */
+	RunMask toRunMask();
+
+	/**
+	 * Returns the given mask in whichever representation takes less memory.
+	 * 
+	 * @param mask a mask
+	 * @return the mask, or a copy of it in the other representation
+	 */
+	public static RegionMask compact(RegionMask mask) {
+		long runBytes = RunMask.estimateMemoryBytes(mask.getHeight(), mask.countRuns());
+		long pixelBytes = PixelMask.estimateMemoryBytes(mask.getWidth(), mask.getHeight());
+		return runBytes < pixelBytes ? mask.toRunMask() : mask.toPixelMask();
+	}
+
+	/**
+	 * Returns the union of the given masks, as in {@link PixelMask#or(PixelMask, PixelMask, Point)}. The masks are
+	 * combined run by run if both are sparse enough to be stored as runs, or else word by word.
+	 * 
+	 * @param mask1   a mask
+	 * @param mask2   another mask
+	 * @param offset2 location of mask2's origin relative to mask1's
+	 * @return the union, in whichever representation is cheaper
+	 */
+	public static RegionMask or(RegionMask mask1, RegionMask mask2, Point offset2) {
+		mask1 = compact(mask1);
+		mask2 = compact(mask2);
+		if (mask1 instanceof RunMask r1 && mask2 instanceof RunMask r2)
+			return compact(RunMask.or(r1, r2, offset2));
+		return compact(PixelMask.or(mask1.toPixelMask(), mask2.toPixelMask(), offset2));
+	}
+
+	/**
+	 * Returns the intersection of the given masks, as in {@link PixelMask#and(PixelMask, PixelMask, Point)}. The masks
+	 * are combined run by run if both are sparse enough to be stored as runs, or else word by word.
+	 * 
+	 * @param mask1   a mask
+	 * @param mask2   another mask
+	 * @param offset2 location of mask2's origin relative to mask1's
+	 * @return the intersection, in whichever representation is cheaper
+	 */
+	public static RegionMask and(RegionMask mask1, RegionMask mask2, Point offset2) {
+		mask1 = compact(mask1);
+		mask2 = compact(mask2);
+		if (mask1 instanceof RunMask r1 && mask2 instanceof RunMask r2)
+			return compact(RunMask.and(r1, r2, offset2));
+		return compact(PixelMask.and(mask1.toPixelMask(), mask2.toPixelMask(), offset2));
+	}
+
+}
@@ -0,0 +1,188 @@
+package canvas;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Finds connected regions of matching pixels in a layer. See
+ * {@link Layer#getMonochromeRegion(Point, double, util.RGBSet)}.
+ */
+class RegionSearch {
+
+	private RegionSearch() {
+	}
+
+	/**
+	 * Finds the pixels connected to the seed through pixels whose colors match, where each pixel is connected to the
+	 * pixels beside it and, if diagonal, to the pixels at its corners. The region is filled a horizontal span at a
+	 * time, keeping a stack of one pixel per span still to be filled in the rows above and below.
+	 * 
+	 * @param l        the layer to search
+	 * @param seed     pixel to start from, which is included in the region whether or not it matches
+	 * @param diagonal whether pixels are connected to their diagonal neighbors
+	 * @param matches  which argb values belong in the region
+	 * @return mask of the region
+	 */
+	static PixelMask fillSpans(Layer l, Point seed, boolean diagonal, IntPredicate matches) {
+		int w = l.getWidth(), h = l.getHeight(), stride = l.getStride(), offset = l.getOffset();
+		int[] data = l.getData();
+		PixelMask mask = new PixelMask(w, h);
+
+		int[] stack = new int[64]; // x, y pairs
+		int n = 0;
+		stack[n++] = seed.x;
+		stack[n++] = seed.y;
+		while (n > 0) {
+			int y = stack[--n], x = stack[--n];
+			if (mask.get(x, y))
+				continue;
+
+			// extend the span to the left and right
+			int row = offset + y * stride;
+			int x0 = x, x1 = x + 1;
+			while (x0 > 0 && !mask.get(x0 - 1, y) && matches.test(data[row + x0 - 1]))
+				x0--;
+			while (x1 < w && !mask.get(x1, y) && matches.test(data[row + x1]))
+				x1++;
+			mask.setRun(y, x0, x1, true);
+
+			// push the start of each unfilled run of matching pixels touching the span in the rows above and below
+			int s0 = diagonal ? Math.max(x0 - 1, 0) : x0, s1 = diagonal ? Math.min(x1 + 1, w) : x1;
+			for (int ny = y - 1; ny <= y + 1; ny += 2) {
+				if (ny < 0 || ny >= h)
+					continue;
+				int nrow = offset + ny * stride;
+				for (int i = s0; i < s1;) {
+					if (mask.get(i, ny) || !matches.test(data[nrow + i])) {
+						i++;
+						continue;
+					}
+					if (n + 2 > stack.length)
+						stack = Arrays.copyOf(stack, stack.length * 2);
+					stack[n++] = i;
+					stack[n++] = ny;
+					while (i < s1 && !mask.get(i, ny) && matches.test(data[nrow + i]))
+						i++;
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Finds the pixels connected to the seed through pixels whose colors match, where each pixel is connected to every
+	 * pixel in the given disc around it. The matching pixels are first gathered into runs, row by row. Since a run is
+	 * connected within itself, the search then moves between whole runs: from each run in the region, it looks for
+	 * unvisited runs within reach in each row the disc spans. Each row keeps a union-find of visited runs, pointing
+	 * every visited run to the next unvisited one, so runs already in the region are skipped rather than rescanned.
+	 * This visits each run once, at a cost of a binary search per row of the disc, regardless of the disc's area.
+	 * 
+	 * @param l       the layer to search
+	 * @param seed    pixel to start from, which must match
+	 * @param disc    pixels connected to the pixel at its center
+	 * @param matches which argb values belong in the region
+	 * @return mask of the region
+	 */
+	static PixelMask growRuns(Layer l, Point seed, CircleMask disc, IntPredicate matches) {
+		int w = l.getWidth(), h = l.getHeight();
+		int[][] runs = findRuns(l, matches); // start and end (exclusive) of each run of matching pixels, by row
+		int[][] nextUnvisited = new int[h][];
+		for (int y = 0; y < h; y++) {
+			nextUnvisited[y] = new int[runs[y].length / 2 + 1];
+			for (int i = 0; i < nextUnvisited[y].length; i++)
+				nextUnvisited[y][i] = i;
+		}
+
+		PixelMask mask = new PixelMask(w, h);
+		int[] queue = new int[64]; // row, run pairs
+		int head = 0, tail = 0;
+
+		int seedRun = findFirstRunEndingAfter(runs[seed.y], seed.x);
+		nextUnvisited[seed.y][seedRun] = seedRun + 1;
+		queue[tail++] = seed.y;
+		queue[tail++] = seedRun;
+		while (head < tail) {
+			int y = queue[head++], i = queue[head++];
+			int x0 = runs[y][2 * i], x1 = runs[y][2 * i + 1];
+			mask.setRun(y, x0, x1, true);
+
+			int dy0 = Math.max(-disc.getExtent(), -y), dy1 = Math.min(disc.getExtent(), h - 1 - y);
+			for (int dy = dy0; dy <= dy1; dy++) {
+				int[] row = runs[y + dy], next = nextUnvisited[y + dy];
+				int hw = disc.getHalfWidth(dy);
+				// runs with a pixel in [x0 - hw, x1 - 1 + hw]
+				int j = find(next, findFirstRunEndingAfter(row, x0 - hw));
+				while (j < next.length - 1 && row[2 * j] < x1 + hw) {
+					next[j] = j + 1;
+					if (tail + 2 > queue.length) {
+						queue = Arrays.copyOfRange(queue, head, head + Math.max(64, 2 * (tail - head + 2)));
+						tail -= head;
+						head = 0;
+					}
+					queue[tail++] = y + dy;
+					queue[tail++] = j;
+					j = find(next, j + 1);
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns the runs of matching pixels in each row of the given layer, as the start and end (exclusive) of each.
+	 */
+	private static int[][] findRuns(Layer l, IntPredicate matches) {
+		int w = l.getWidth(), h = l.getHeight(), stride = l.getStride(), offset = l.getOffset();
+		int[] data = l.getData();
+		int[][] runs = new int[h][];
+		int[] buffer = new int[w + 1];
+		for (int y = 0; y < h; y++) {
+			int row = offset + y * stride, n = 0;
+			for (int x = 0; x < w;) {
+				if (!matches.test(data[row + x])) {
+					x++;
+					continue;
+				}
+				buffer[n++] = x;
+				while (x < w && matches.test(data[row + x]))
+					x++;
+				buffer[n++] = x;
+			}
+			runs[y] = Arrays.copyOf(buffer, n);
+		}
+		return runs;
+	}
+
+	/**
+	 * Returns the index of the first run in the given row that ends after the given x, or the number of runs if none
+	 * does.
+	 */
+	private static int findFirstRunEndingAfter(int[] row, int x) {
+		int lo = 0, hi = row.length / 2;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (row[2 * mid + 1] > x)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the first unvisited run at or after the given one, compressing the path taken.
+	 */
+	private static int find(int[] next, int i) {
+		int root = i;
+		while (next[root] != root)
+			root = next[root];
+		while (next[i] != root) {
+			int j = next[i];
+			next[i] = root;
+			i = j;
+		}
+		return root;
+	}
+
+}
@@ -0,0 +1,285 @@
+package canvas;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import util.Util;
+
+/**
+ * An immutable bitmask stored as runs of set pixels in each row. This is much smaller than a {@link PixelMask} for
+ * masks made of a few rectangles or blobs on a large canvas, and iterating over it never visits unset pixels.
+ */
+public class RunMask implements RegionMask {
+
+	private static final int[] emptyRow = new int[0];
+
+	/**
+	 * Returns an estimate of how many bytes a run mask with the given number of rows and runs occupies.
+	 * 
+	 * @param height number of rows
+	 * @param runs   number of runs
+	 * @return the number of bytes
+	 */
+	public static long estimateMemoryBytes(int height, int runs) {
+		return 16 + 4L * height + 24L * runs; // row references, plus at worst an array header and two ints per run
+	}
+
+	/**
+	 * Creates a mask of the given size that is set inside the given rectangle.
+	 * 
+	 * @param width  width of the mask
+	 * @param height height of the mask
+	 * @param r      the rectangle, which is clipped to the mask
+	 * @return the mask
+	 */
+	public static RunMask rectangle(int width, int height, Rectangle r) {
+		r = r.intersection(new Rectangle(width, height));
+		int[][] rows = new int[height][];
+		Arrays.fill(rows, emptyRow);
+		if (!r.isEmpty()) {
+			int[] run = { r.x, r.x + r.width };
+			for (int y = r.y; y < r.y + r.height; y++)
+				rows[y] = run;
+		}
+		return new RunMask(width, height, rows);
+	}
+
+	/**
+	 * Creates a mask holding the same pixels as the given mask.
+	 * 
+	 * @param mask a mask
+	 * @return the mask
+	 */
+	public static RunMask of(RegionMask mask) {
+		if (mask instanceof RunMask r)
+			return r;
+		var builder = new RowBuilder(mask.getHeight());
+		mask.doRuns(builder);
+		return new RunMask(mask.getWidth(), mask.getHeight(), builder.getRows());
+	}
+
+	/**
+	 * Collects runs, given row by row, into the rows of a mask. Each row is gathered in a buffer that grows by
+	 * doubling and is copied out once, trimmed, when the next row starts.
+	 */
+	private static class RowBuilder implements RunAction {
+
+		RowBuilder(int height) {
+			rows = new int[height][];
+			Arrays.fill(rows, emptyRow);
+		}
+
+		// fields
+
+		private final int[][] rows;
+		private int[] buffer = new int[16];
+		private int y = -1, n = 0; // row being gathered, and number of ints of it in the buffer
+
+		// methods
+
+		@Override
+		public void doRun(int y, int x0, int x1) {
+			if (y != this.y) {
+				finishRow();
+				this.y = y;
+			}
+			if (n + 2 > buffer.length)
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			buffer[n++] = x0;
+			buffer[n++] = x1;
+		}
+
+		private void finishRow() {
+			if (n > 0)
+				rows[y] = Arrays.copyOf(buffer, n);
+			n = 0;
+		}
+
+		/**
+		 * @return the rows, each holding the start and end of each of its runs
+		 */
+		int[][] getRows() {
+			finishRow();
+			return rows;
+		}
+
+	}
+
+	private RunMask(int width, int height, int[][] rows) {
+		this.width = width;
+		this.height = height;
+		this.rows = rows;
+		int n = 0;
+		for (var row : rows)
+			n += row.length / 2;
+		nRuns = n;
+	}
+
+	// fields
+
+	public final int width, height;
+	private final int[][] rows; // each row holds the start and end (exclusive) of each run, in increasing order
+	private final int nRuns;
+
+	// methods
+
+	/**
+	 * Returns the union of the given masks, computed run by run. Sizes and offsets work as in
+	 * {@link PixelMask#merge(PixelMask, PixelMask, Point, PixelMask.Merger)}.
+	 * 
+	 * @param mask1   a mask
+	 * @param mask2   another mask
+	 * @param offset2 location of mask2's origin relative to mask1's
+	 * @return the union
+	 */
+	public static RunMask or(RunMask mask1, RunMask mask2, Point offset2) {
+		return merge(mask1, mask2, offset2, true);
+	}
+
+	/**
+	 * Returns the intersection of the given masks, computed run by run. Sizes and offsets work as in
+	 * {@link PixelMask#merge(PixelMask, PixelMask, Point, PixelMask.Merger)}.
+	 * 
+	 * @param mask1   a mask
+	 * @param mask2   another mask
+	 * @param offset2 location of mask2's origin relative to mask1's
+	 * @return the intersection
+	 */
+	public static RunMask and(RunMask mask1, RunMask mask2, Point offset2) {
+		return merge(mask1, mask2, offset2, false);
+	}
+
+	private static RunMask merge(RunMask mask1, RunMask mask2, Point offset2, boolean union) {
+		Point offset1 = Util.times(Util.min(new Point(), offset2), -1);
+		offset2 = Util.max(new Point(), offset2);
+
+		int width = Math.max(mask1.width + offset1.x, mask2.width + offset2.x);
+		int height = Math.max(mask1.height + offset1.y, mask2.height + offset2.y);
+		int[][] rows = new int[height][];
+		for (int j = 0; j < height; j++) {
+			int[] row1 = mask1.getRow(j - offset1.y), row2 = mask2.getRow(j - offset2.y);
+			rows[j] = union ? unionRows(row1, offset1.x, row2, offset2.x)
+					: intersectRows(row1, offset1.x, row2, offset2.x);
+		}
+		return new RunMask(width, height, rows);
+	}
+
+	private static int[] unionRows(int[] row1, int dx1, int[] row2, int dx2) {
+		if (row1.length == 0 && dx2 == 0)
+			return row2;
+		if (row2.length == 0 && dx1 == 0)
+			return row1;
+		int[] merged = new int[row1.length + row2.length];
+		int n = 0, i = 0, j = 0;
+		while (i < row1.length || j < row2.length) {
+			int x0, x1;
+			if (j >= row2.length || i < row1.length && row1[i] + dx1 <= row2[j] + dx2) {
+				x0 = row1[i] + dx1;
+				x1 = row1[i + 1] + dx1;
+				i += 2;
+			} else {
+				x0 = row2[j] + dx2;
+				x1 = row2[j + 1] + dx2;
+				j += 2;
+			}
+			if (n > 0 && x0 <= merged[n - 1]) { // overlaps or touches the previous run
+				merged[n - 1] = Math.max(merged[n - 1], x1);
+			} else {
+				merged[n++] = x0;
+				merged[n++] = x1;
+			}
+		}
+		return n == 0 ? emptyRow : Arrays.copyOf(merged, n);
+	}
+
+	private static int[] intersectRows(int[] row1, int dx1, int[] row2, int dx2) {
+		if (row1.length == 0 || row2.length == 0)
+			return emptyRow;
+		int[] merged = new int[row1.length + row2.length];
+		int n = 0, i = 0, j = 0;
+		while (i < row1.length && j < row2.length) {
+			int end1 = row1[i + 1] + dx1, end2 = row2[j + 1] + dx2;
+			int x0 = Math.max(row1[i] + dx1, row2[j] + dx2), x1 = Math.min(end1, end2);
+			if (x0 < x1) {
+				merged[n++] = x0;
+				merged[n++] = x1;
+			}
+			if (end1 < end2)
+				i += 2;
+			else
+				j += 2;
+		}
+		return n == 0 ? emptyRow : Arrays.copyOf(merged, n);
+	}
+
+	private int[] getRow(int y) {
+		return y < 0 || y >= height ? emptyRow : rows[y];
+	}
+
+	@Override
+	public boolean get(int x, int y) {
+		int[] row = getRow(y);
+		// find the last run starting at or before x
+		int lo = 0, hi = row.length / 2 - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (row[2 * mid] <= x)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi >= 0 && x < row[2 * hi + 1];
+	}
+
+	@Override
+	public void doRuns(RunAction action) {
+		for (int y = 0; y < height; y++) {
+			int[] row = rows[y];
+			for (int i = 0; i < row.length; i += 2)
+				action.doRun(y, row[i], row[i + 1]);
+		}
+	}
+
+	@Override
+	public int countRuns() {
+		return nRuns;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		long bytes = 16 + 4L * height;
+		for (var row : rows)
+			if (row != emptyRow)
+				bytes += 16 + 4L * row.length;
+		return bytes;
+	}
+
+	@Override
+	public PixelMask toPixelMask() {
+		var mask = new PixelMask(width, height);
+		doRuns((y, x0, x1) -> mask.setRun(y, x0, x1, true));
+		return mask;
+	}
+
+	@Override
+	public RunMask toRunMask() {
+		return this;
+	}
+
+	@Override
+	public long getVersion() {
+		return 0; // immutable
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+}
@@ -0,0 +1,260 @@
+package canvas;
+
+import java.util.stream.IntStream;
+
+import canvas.Scaler.Pixels;
+
+/**
+ * Filters for scaling pixel art up. Each filter other than {@link #NEAREST} magnifies by a fixed whole number, turning
+ * each pixel into a block whose corners follow the edges running through its neighborhood, so that diagonal edges stay
+ * sharp instead of turning into staircases. Pixels with an alpha of 0 all count as the same color. Pixels past the
+ * edge of the image are taken to be copies of the nearest pixel on the edge. Large images are magnified in parallel,
+ * in square tiles.
+ */
+public enum ScaleFilter {
+
+	/**
+	 * No filtering: pixels are only scaled by nearest neighbor.
+	 */
+	NEAREST("Nearest neighbor", 1),
+
+	/**
+	 * Scale2x, also known as EPX or AdvMAME2x, which gives the same output: a corner of the 2x2 block takes the color
+	 * of its two orthogonal neighbors if they match each other and the block does not sit on a corner of them.
+	 */
+	SCALE2X("Scale2x (EPX)", 2),
+
+	/**
+	 * Scale3x, or AdvMAME3x: Scale2x extended to 3x3 blocks, whose edge centers also follow matching neighbors.
+	 */
+	SCALE3X("Scale3x", 3),
+
+	/**
+	 * 2xBR, the first level of Hyllian's xBR: a corner of the 2x2 block is blended half way toward its nearer
+	 * orthogonal neighbor when the color differences along the edge between those neighbors are smaller than across
+	 * it, weighing differences in luma more than in chroma. Unlike the others, this filter makes new colors.
+	 */
+	XBR("xBR", 2);
+
+	// below this many output pixels, magnifying in parallel is not worth it
+	private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+	private static final int TILE_SIZE = 64; // width and height of the tiles of the input magnified in parallel
+
+	private ScaleFilter(String name, int factor) {
+		this.name = name;
+		this.factor = factor;
+	}
+
+	// fields
+
+	private final String name;
+	private final int factor;
+
+	// methods
+
+	/**
+	 * @return the name of the filter, for display
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return how many times wider and taller the filter makes an image
+	 */
+	public int getFactor() {
+		return factor;
+	}
+
+	/**
+	 * Magnifies the given pixels by the factor of the filter.
+	 * 
+	 * @param src the pixels to magnify
+	 * @param dst where to put the magnified pixels, {@link #getFactor()} times as wide and tall as src
+	 */
+	public void magnify(Pixels src, Pixels dst) {
+		int w = src.width(), h = src.height();
+		if (dst.width() != w * factor || dst.height() != h * factor)
+			throw new IllegalArgumentException("Cannot magnify %dx%d by %d into %dx%d".formatted(w, h, factor,
+					dst.width(), dst.height()));
+		if ((long) dst.width() * dst.height() < PARALLEL_THRESHOLD) {
+			magnify(src, dst, 0, 0, w, h);
+			return;
+		}
+		int nx = (w + TILE_SIZE - 1) / TILE_SIZE, ny = (h + TILE_SIZE - 1) / TILE_SIZE;
+		IntStream.range(0, nx * ny).parallel().forEach(t -> {
+			int x0 = t % nx * TILE_SIZE, y0 = t / nx * TILE_SIZE;
+			magnify(src, dst, x0, y0, Math.min(x0 + TILE_SIZE, w), Math.min(y0 + TILE_SIZE, h));
+		});
+	}
+
+	/**
+	 * Magnifies the input pixels from (x0, y0) to (x1 - 1, y1 - 1), each into its block of the output.
+	 */
+	private void magnify(Pixels src, Pixels dst, int x0, int y0, int x1, int y1) {
+		switch (this) {
+			case NEAREST -> {
+				for (int y = y0; y < y1; y++)
+					System.arraycopy(src.data(), src.offset() + y * src.stride() + x0, dst.data(),
+							dst.offset() + y * dst.stride() + x0, x1 - x0);
+			}
+			case SCALE2X -> scale2x(src, dst, x0, y0, x1, y1);
+			case SCALE3X -> scale3x(src, dst, x0, y0, x1, y1);
+			case XBR -> xbr(src, dst, x0, y0, x1, y1);
+		}
+	}
+
+	/**
+	 * Returns the index in the array of the given pixel, moved onto the nearest pixel of the image if outside it.
+	 */
+	private static int indexAt(Pixels p, int x, int y) {
+		x = Math.max(0, Math.min(x, p.width() - 1));
+		y = Math.max(0, Math.min(y, p.height() - 1));
+		return p.offset() + y * p.stride() + x;
+	}
+
+	/**
+	 * Returns the given color, or 0 if it is fully transparent, so that transparent pixels all compare equal.
+	 */
+	private static int normalized(int argb) {
+		return argb >>> 24 == 0 ? 0 : argb;
+	}
+
+	private static void scale2x(Pixels src, Pixels dst, int x0, int y0, int x1, int y1) {
+		int[] in = src.data(), out = dst.data();
+		int w = src.width();
+		for (int y = y0; y < y1; y++) {
+			int above = indexAt(src, 0, y - 1), row = indexAt(src, 0, y), below = indexAt(src, 0, y + 1);
+			int top = dst.offset() + 2 * y * dst.stride(), bottom = top + dst.stride();
+			for (int x = x0; x < x1; x++) {
+				int left = Math.max(x - 1, 0), right = Math.min(x + 1, w - 1);
+				int b = normalized(in[above + x]), d = normalized(in[row + left]), e = normalized(in[row + x]);
+				int f = normalized(in[row + right]), h = normalized(in[below + x]);
+				int i = 2 * x;
+				if (b != h && d != f) {
+					out[top + i] = d == b ? d : e;
+					out[top + i + 1] = b == f ? f : e;
+					out[bottom + i] = d == h ? d : e;
+					out[bottom + i + 1] = h == f ? f : e;
+				} else {
+					out[top + i] = out[top + i + 1] = out[bottom + i] = out[bottom + i + 1] = e;
+				}
+			}
+		}
+	}
+
+	private static void scale3x(Pixels src, Pixels dst, int x0, int y0, int x1, int y1) {
+		int[] in = src.data(), out = dst.data();
+		int w = src.width(), stride = dst.stride();
+		for (int y = y0; y < y1; y++) {
+			int above = indexAt(src, 0, y - 1), row = indexAt(src, 0, y), below = indexAt(src, 0, y + 1);
+			int top = dst.offset() + 3 * y * stride;
+			for (int x = x0; x < x1; x++) {
+				int left = Math.max(x - 1, 0), right = Math.min(x + 1, w - 1);
+				int a = normalized(in[above + left]), b = normalized(in[above + x]), c = normalized(in[above + right]);
+				int d = normalized(in[row + left]), e = normalized(in[row + x]), f = normalized(in[row + right]);
+				int g = normalized(in[below + left]), h = normalized(in[below + x]), i = normalized(in[below + right]);
+				int k = top + 3 * x;
+				if (b != h && d != f) {
+					out[k] = d == b ? d : e;
+					out[k + 1] = d == b && e != c || b == f && e != a ? b : e;
+					out[k + 2] = b == f ? f : e;
+					out[k + stride] = d == b && e != g || d == h && e != a ? d : e;
+					out[k + stride + 1] = e;
+					out[k + stride + 2] = b == f && e != i || h == f && e != c ? f : e;
+					out[k + 2 * stride] = d == h ? d : e;
+					out[k + 2 * stride + 1] = d == h && e != i || h == f && e != g ? h : e;
+					out[k + 2 * stride + 2] = h == f ? f : e;
+				} else {
+					for (int j = 0; j < 3; j++)
+						out[k + j * stride] = out[k + j * stride + 1] = out[k + j * stride + 2] = e;
+				}
+			}
+		}
+	}
+
+	private static void xbr(Pixels src, Pixels dst, int x0, int y0, int x1, int y1) {
+		int[] in = src.data(), out = dst.data();
+		int[] near = new int[25]; // the 5x5 neighborhood of a pixel, row by row, less its corners
+		int[] rows = new int[5];
+		for (int y = y0; y < y1; y++) {
+			for (int j = 0; j < 5; j++)
+				rows[j] = indexAt(src, 0, y + j - 2);
+			int top = dst.offset() + 2 * y * dst.stride(), bottom = top + dst.stride();
+			for (int x = x0; x < x1; x++) {
+				int e = normalized(in[rows[2] + x]);
+				int i = 2 * x;
+				int left = Math.max(x - 1, 0), right = Math.min(x + 1, src.width() - 1);
+				if (e == normalized(in[rows[1] + x]) && e == normalized(in[rows[3] + x])
+						&& e == normalized(in[rows[2] + left]) && e == normalized(in[rows[2] + right])) {
+					// no edge can run past a pixel matching all its orthogonal neighbors
+					out[top + i] = out[top + i + 1] = out[bottom + i] = out[bottom + i + 1] = e;
+					continue;
+				}
+				for (int j = 0; j < 5; j++) {
+					for (int dx = -2; dx <= 2; dx++) {
+						if ((j == 0 || j == 4) && (dx == -2 || dx == 2))
+							continue;
+						int xx = Math.max(0, Math.min(x + dx, src.width() - 1));
+						near[5 * j + dx + 2] = normalized(in[rows[j] + xx]);
+					}
+				}
+				out[top + i] = xbrCorner(near, -1, -1);
+				out[top + i + 1] = xbrCorner(near, 1, -1);
+				out[bottom + i] = xbrCorner(near, -1, 1);
+				out[bottom + i + 1] = xbrCorner(near, 1, 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the color of the corner of a 2x2 block in the given direction, as in 2xBR. The neighborhood is named as
+	 * for the bottom right corner, and mirrored for the others.
+	 * 
+	 * <pre>
+	 *        A1 B1 C1
+	 *     A0 A  B  C  C4
+	 *     D0 D  E  F  F4
+	 *     G0 G  H  I  I4
+	 *        G5 H5 I5
+	 * </pre>
+	 */
+	private static int xbrCorner(int[] near, int sx, int sy) {
+		int e = near[12];
+		int f = near[12 + sx], h = near[12 + 5 * sy];
+		if (e == f || e == h)
+			return e;
+		int b = near[12 - 5 * sy], c = near[12 + sx - 5 * sy], d = near[12 - sx], g = near[12 - sx + 5 * sy];
+		int i = near[12 + sx + 5 * sy];
+		int f4 = near[12 + 2 * sx], i4 = near[12 + 2 * sx + 5 * sy];
+		int h5 = near[12 + 10 * sy], i5 = near[12 + sx + 10 * sy];
+		// differences along the edge between f and h, against across it
+		int along = distance(e, c) + distance(e, g) + distance(i, h5) + distance(i, f4) + 4 * distance(h, f);
+		int across = distance(h, d) + distance(h, i5) + distance(f, i4) + distance(f, b) + 4 * distance(e, i);
+		if (along >= across)
+			return e;
+		int edge = distance(e, f) <= distance(e, h) ? f : h;
+		if (e >>> 24 == 0 || edge >>> 24 == 0)
+			return edge; // blending with a transparent pixel would only darken the edge
+		return ((e & 0xfefefefe) >>> 1) + ((edge & 0xfefefefe) >>> 1);
+	}
+
+	/**
+	 * Returns the difference between two colors, as a weighted sum of the absolute differences of their luma (Y),
+	 * chroma (U and V) and alpha, each scaled by 1000.
+	 */
+	private static int distance(int c1, int c2) {
+		if (c1 == c2)
+			return 0;
+		int da = (c1 >>> 24) - (c2 >>> 24);
+		int dr = (c1 >>> 16 & 0xff) - (c2 >>> 16 & 0xff);
+		int dg = (c1 >>> 8 & 0xff) - (c2 >>> 8 & 0xff);
+		int db = (c1 & 0xff) - (c2 & 0xff);
+		int y = 299 * dr + 587 * dg + 114 * db;
+		int u = -169 * dr - 331 * dg + 500 * db;
+		int v = 500 * dr - 419 * dg - 81 * db;
+		return 48 * Math.abs(y) + 7 * Math.abs(u) + 6 * Math.abs(v) + 48000 * Math.abs(da);
+	}
+
+}
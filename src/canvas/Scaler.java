@@ -0,0 +1,118 @@
+package canvas;
+
+import java.util.stream.IntStream;
+
+/**
+ * Scales pixel art by nearest neighbor, straight between arrays of argb pixels: each pixel of the output takes the
+ * color of the input pixel under its center, so that an output pixel x samples input pixel floor((x + 0.5) * w / W),
+ * and likewise for y. Scaling up by whole numbers repeats each pixel in a block, and no colors are ever blended.
+ * Large outputs are scaled in parallel, in bands of rows.
+ */
+public class Scaler {
+
+	/**
+	 * A grid of argb pixels within an array: pixel (x, y) is data[offset + y * stride + x].
+	 * 
+	 * @param data   the array
+	 * @param offset index of pixel (0, 0)
+	 * @param stride distance in the array between vertically adjacent pixels
+	 * @param width  width in pixels
+	 * @param height height in pixels
+	 */
+	public static record Pixels(int[] data, int offset, int stride, int width, int height) {
+	}
+
+	// below this many output pixels, scaling in parallel is not worth it
+	private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+	/**
+	 * Scales the given pixels to fill the given output, by nearest neighbor.
+	 * 
+	 * @param src the pixels to scale
+	 * @param dst where to put the scaled pixels, which may be of any size
+	 */
+	public static void nearest(Pixels src, Pixels dst) {
+		int w = src.width(), h = src.height(), dw = dst.width(), dh = dst.height();
+		if (dw % w == 0 && dh % h == 0) {
+			int kx = dw / w, ky = dh / h;
+			inBands(dw, dh, (y0, y1) -> scaleByWholeNumbers(src, dst, kx, ky, y0, y1));
+		} else {
+			// the input column sampled by each output column, exactly as floor((x + 0.5) * w / dw)
+			int[] columns = new int[dw];
+			for (int x = 0; x < dw; x++)
+				columns[x] = (int) ((2L * x + 1) * w / (2L * dw));
+			inBands(dw, dh, (y0, y1) -> scaleByColumns(src, dst, columns, y0, y1));
+		}
+	}
+
+	/**
+	 * Scales rows y0 to y1 - 1 of the output by repeating each input pixel kx times across and each input row ky times
+	 * down.
+	 */
+	private static void scaleByWholeNumbers(Pixels src, Pixels dst, int kx, int ky, int y0, int y1) {
+		int[] in = src.data(), out = dst.data();
+		int w = src.width(), dw = dst.width();
+		for (int y = y0; y < y1; y++) {
+			int row = dst.offset() + y * dst.stride();
+			if (y > y0 && y % ky != 0) { // same as the row above
+				System.arraycopy(out, row - dst.stride(), out, row, dw);
+				continue;
+			}
+			int from = src.offset() + y / ky * src.stride();
+			if (kx == 1) {
+				System.arraycopy(in, from, out, row, dw);
+				continue;
+			}
+			for (int x = 0, i = row; x < w; x++) {
+				int rgb = in[from + x];
+				for (int k = 0; k < kx; k++)
+					out[i++] = rgb;
+			}
+		}
+	}
+
+	/**
+	 * Scales rows y0 to y1 - 1 of the output by sampling the given input column for each output column, and the input
+	 * row under the center of each output row.
+	 */
+	private static void scaleByColumns(Pixels src, Pixels dst, int[] columns, int y0, int y1) {
+		int[] in = src.data(), out = dst.data();
+		int h = src.height(), dw = dst.width(), dh = dst.height();
+		int prev = -1;
+		for (int y = y0; y < y1; y++) {
+			int row = dst.offset() + y * dst.stride();
+			int sy = (int) ((2L * y + 1) * h / (2L * dh));
+			if (sy == prev) { // same as the row above
+				System.arraycopy(out, row - dst.stride(), out, row, dw);
+				continue;
+			}
+			prev = sy;
+			int from = src.offset() + sy * src.stride();
+			for (int x = 0; x < dw; x++)
+				out[row + x] = in[from + columns[x]];
+		}
+	}
+
+	/**
+	 * Work on a band of rows of the output, from y0 to y1 - 1.
+	 */
+	@FunctionalInterface
+	private interface Band {
+		void scale(int y0, int y1);
+	}
+
+	/**
+	 * Runs the given work on bands of rows covering an output of the given size, in parallel if the output is large
+	 * enough to be worth it. Bands do not overlap, and each starts afresh, so the result is the same either way.
+	 */
+	private static void inBands(int width, int height, Band band) {
+		if ((long) width * height < PARALLEL_THRESHOLD) {
+			band.scale(0, height);
+			return;
+		}
+		int nBands = Math.min(height, 4 * Runtime.getRuntime().availableProcessors());
+		IntStream.range(0, nBands).parallel()
+				.forEach(b -> band.scale((int) ((long) height * b / nBands), (int) ((long) height * (b + 1) / nBands)));
+	}
+
+}
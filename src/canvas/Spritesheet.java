@@ -9,6 +9,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.HashMap;
 import java.util.Iterator;
 
 import io.IOUtil;
@@ -42,11 +43,19 @@ public class Spritesheet extends Layer implements Iterable<Layer> {
 	private File file;
 	private final Dimension spriteDim; // the dimensions in pixels of each sprite
 	private final Point currentSpriteIndex = new Point(0, 0);
+	private final HashMap<Point, Layer> sprites = new HashMap<>(); // views of sprites, reused so snapshots share tiles
 
 	// methods
 
+	/**
+	 * Returns a view of the specified sprite. The same view is returned until the sprite dimensions change.
+	 * 
+	 * @param index the coordinate of the sprite on the sheet (e.g. (0,1))
+	 * @return a Layer with the view of the sprite
+	 */
 	public Layer getSprite(Point index) {
-		return cropped(new Point(index.x * spriteDim.width, index.y * spriteDim.height), spriteDim);
+		return sprites.computeIfAbsent(new Point(index),
+				i -> cropped(new Point(i.x * spriteDim.width, i.y * spriteDim.height), spriteDim));
 	}
 
 	public void setCurrentSprite(Point index) {
@@ -150,6 +159,8 @@ public class Spritesheet extends Layer implements Iterable<Layer> {
 		if (d.width > getWidth() || d.height > getHeight())
 			throw new RuntimeException("Invalid dimension: %s (spritesheet is dimension %s".formatted(d.toString(),
 					getImageDim().toString()));
+		if (!spriteDim.equals(d))
+			sprites.clear();
 		spriteDim.setSize(d);
 
 		// move active sprite if necessary
@@ -158,7 +169,10 @@ public class Spritesheet extends Layer implements Iterable<Layer> {
 				Math.min(currentSpriteIndex.y, newSSDim.height - 1));
 
 		// secretly sign the image with the new dimension
-		IOUtil.addSpriteDimSignature(getImage(), d);
+		if (!d.equals(IOUtil.readSpriteDimSignature(getImage()))) {
+			IOUtil.addSpriteDimSignature(getImage(), d);
+			markModified();
+		}
 	}
 
 	/**
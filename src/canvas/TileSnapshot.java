@@ -0,0 +1,229 @@
+package canvas;
+
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import util.Journal;
+
+/**
+ * An immutable copy of the pixels of a layer, stored as square tiles of {@link #TILE_SIZE} pixels. A snapshot taken
+ * relative to an earlier snapshot of the same layer shares every tile whose pixels have not changed since, so that
+ * repeated snapshots of a large, mostly unchanged layer only cost the tiles that were written. Tiles may be spilled to
+ * a {@link Journal}, after which they are read back from it whenever they are needed, until they are garbage
+ * collected and their space in the journal is freed.
+ */
+public class TileSnapshot {
+
+	/**
+	 * Width and height of each tile, in pixels (tiles on the right and bottom edges may be smaller).
+	 */
+	public static final int TILE_SIZE = 64;
+
+	// frees the journal space of spilled tiles once no snapshot refers to them
+	private static final Cleaner cleaner = Cleaner.create();
+
+	/**
+	 * Copies the pixels of the given layer, sharing unchanged tiles with the given base snapshot. Tiles the layer has
+	 * not modified since the base was taken (see {@link Layer#getVersion(int, int, int, int)}) are shared without
+	 * being looked at. Modified tiles are compared with the base only if its tile is in the heap, and copied
+	 * otherwise, so that nothing is read back from a journal.
+	 * 
+	 * @param l           layer to copy
+	 * @param base        an earlier snapshot of the layer, or null
+	 * @param baseVersion the version of the layer when it held the pixels of base
+	 */
+	TileSnapshot(Layer l, TileSnapshot base, long baseVersion) {
+		width = l.getWidth();
+		height = l.getHeight();
+		nTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		nTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		tiles = new Tile[nTilesX * nTilesY];
+
+		if (base != null && !isSameSize(base))
+			base = null;
+
+		int[] data = l.getData();
+		for (int ty = 0; ty < nTilesY; ty++) {
+			for (int tx = 0; tx < nTilesX; tx++) {
+				int i = ty * nTilesX + tx;
+				int start = l.getOffset() + ty * TILE_SIZE * l.getStride() + tx * TILE_SIZE;
+				int tw = getTileWidth(tx), th = getTileHeight(ty);
+				if (base != null && (l.getVersion(tx * TILE_SIZE, ty * TILE_SIZE, tw, th) <= baseVersion
+						|| base.tiles[i].isInHeap() && tileEquals(data, start, l.getStride(), base.tiles[i], tw)))
+					tiles[i] = base.tiles[i];
+				else
+					tiles[i] = new Tile(copyTile(data, start, l.getStride(), tw, th));
+			}
+		}
+	}
+
+	/**
+	 * The pixels of one tile, held either in an array or in a journal.
+	 */
+	private static class Tile {
+		Tile(int[] pixels) {
+			this.pixels = pixels;
+			length = pixels.length;
+		}
+
+		private int[] pixels; // rows of pixels back to back, or null if spilled
+		private final int length;
+		private Journal journal;
+		private long position;
+
+		/**
+		 * Returns the pixels of this tile. If the tile has been spilled, they are read into a new array that the tile
+		 * does not keep.
+		 */
+		int[] getPixels() {
+			if (pixels != null)
+				return pixels;
+			int[] p = new int[length];
+			journal.read(position, p);
+			return p;
+		}
+
+		boolean isInHeap() {
+			return pixels != null;
+		}
+
+		long getBytes() {
+			return 16 + 4L * length; // array header and contents
+		}
+
+		void spill(Journal journal) {
+			if (pixels == null)
+				return;
+			long at = journal.append(pixels);
+			int n = length;
+			cleaner.register(this, () -> journal.free(at, n)); // must not refer to the tile, or it is never collected
+			position = at;
+			this.journal = journal;
+			pixels = null;
+		}
+	}
+
+	// fields
+
+	private final int width, height;
+	private final int nTilesX, nTilesY;
+	private final Tile[] tiles; // row-major
+
+	// methods
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of heap bytes held by the tiles of this snapshot that are not shared with the given snapshot.
+	 * Spilled tiles are not counted.
+	 * 
+	 * @param other another snapshot, or null to count every tile
+	 * @return the number of bytes
+	 */
+	public long getBytesNotIn(TileSnapshot other) {
+		if (other != null && !isSameSize(other))
+			other = null;
+		long bytes = 0;
+		for (int i = 0; i < tiles.length; i++)
+			if (tiles[i].isInHeap() && (other == null || other.tiles[i] != tiles[i]))
+				bytes += tiles[i].getBytes();
+		return bytes;
+	}
+
+	/**
+	 * Moves the tiles of this snapshot to the given journal, except for tiles shared with any of the given snapshots,
+	 * which stay in the heap so that they can still be compared and copied cheaply.
+	 * 
+	 * @param journal the journal
+	 * @param kept    snapshots whose tiles should not be spilled
+	 */
+	public void spill(Journal journal, Collection<TileSnapshot> kept) {
+		Set<Tile> keptTiles = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (var s : kept)
+			keptTiles.addAll(Arrays.asList(s.tiles));
+		for (var tile : tiles)
+			if (!keptTiles.contains(tile))
+				tile.spill(journal);
+	}
+
+	/**
+	 * Creates a new layer holding the pixels of this snapshot.
+	 * 
+	 * @return the layer
+	 */
+	public Layer toLayer() {
+		Layer l = new Layer(width, height);
+		l.restore(this);
+		return l;
+	}
+
+	/**
+	 * Writes the pixels of this snapshot to the given layer, which must be the same size. If the layer is known to
+	 * hold the pixels of another snapshot, only the tiles not shared with that snapshot are written.
+	 * 
+	 * @param l       the layer
+	 * @param current a snapshot equal to the layer's current pixels, or null if unknown
+	 */
+	void copyTo(Layer l, TileSnapshot current) {
+		if (l.getWidth() != width || l.getHeight() != height)
+			throw new IllegalArgumentException("Cannot restore %dx%d snapshot to %dx%d layer".formatted(width, height,
+					l.getWidth(), l.getHeight()));
+		if (current != null && !isSameSize(current))
+			current = null;
+
+		int[] data = l.getData();
+		for (int ty = 0; ty < nTilesY; ty++) {
+			for (int tx = 0; tx < nTilesX; tx++) {
+				Tile t = tiles[ty * nTilesX + tx];
+				if (current != null && current.tiles[ty * nTilesX + tx] == t)
+					continue;
+				int[] tile = t.getPixels();
+				int start = l.getOffset() + ty * TILE_SIZE * l.getStride() + tx * TILE_SIZE;
+				int tw = getTileWidth(tx);
+				for (int row = 0, src = 0; src < tile.length; row++, src += tw)
+					System.arraycopy(tile, src, data, start + row * l.getStride(), tw);
+				l.markModified(tx * TILE_SIZE, ty * TILE_SIZE, tw, getTileHeight(ty));
+			}
+		}
+	}
+
+	private boolean isSameSize(TileSnapshot other) {
+		return other.width == width && other.height == height;
+	}
+
+	private int getTileWidth(int tx) {
+		return Math.min(TILE_SIZE, width - tx * TILE_SIZE);
+	}
+
+	private int getTileHeight(int ty) {
+		return Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+	}
+
+	private static int[] copyTile(int[] data, int start, int stride, int tw, int th) {
+		int[] tile = new int[tw * th];
+		for (int row = 0; row < th; row++)
+			System.arraycopy(data, start + row * stride, tile, row * tw, tw);
+		return tile;
+	}
+
+	private static boolean tileEquals(int[] data, int start, int stride, Tile t, int tw) {
+		int[] tile = t.getPixels();
+		for (int row = 0, src = 0; src < tile.length; row++, src += tw) {
+			int from = start + row * stride;
+			if (!Arrays.equals(data, from, from + tw, tile, src, src + tw))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,290 @@
+package canvas;
+
+/**
+ * Quantizes colors with Xiaolin Wu's method: colors are binned on a 32x32x32 grid, cumulative moments of the bins
+ * make the weight, mean and variance of any box of bins computable in constant time, and the box whose best cut along
+ * r, g or b most reduces the total variance is cut until there are enough boxes. Each box becomes the weighted mean of
+ * its colors.
+ */
+public class WuQuantizer implements Quantizer {
+
+	private static final int SIDE = 33; // 32 bins per component, plus a row of zeros before them
+
+	private static int index(int r, int g, int b) {
+		return (r * SIDE + g) * SIDE + b;
+	}
+
+	/**
+	 * A box of bins, from r0 (exclusive) to r1 (inclusive) along r, and likewise along g and b.
+	 */
+	private static class Box {
+		int r0, r1, g0, g1, b0, b1;
+
+		int getVolume() {
+			return (r1 - r0) * (g1 - g0) * (b1 - b0);
+		}
+	}
+
+	// methods
+
+	@Override
+	public Result reduce(ColorHistogram h, int nColors) {
+		return new Moments(h).cutBoxes(h, nColors);
+	}
+
+	private static int getBin(int rgb) {
+		return index((rgb >>> 19 & 0x1f) + 1, (rgb >>> 11 & 0x1f) + 1, (rgb >>> 3 & 0x1f) + 1);
+	}
+
+	/**
+	 * Returns the sum of the given moment over the given box.
+	 */
+	private static long getVolume(Box box, long[] m) {
+		return m[index(box.r1, box.g1, box.b1)] - m[index(box.r1, box.g1, box.b0)]
+				- m[index(box.r1, box.g0, box.b1)] + m[index(box.r1, box.g0, box.b0)]
+				- m[index(box.r0, box.g1, box.b1)] + m[index(box.r0, box.g1, box.b0)]
+				+ m[index(box.r0, box.g0, box.b1)] - m[index(box.r0, box.g0, box.b0)];
+	}
+
+	private static double getVolume(Box box, double[] m) {
+		return m[index(box.r1, box.g1, box.b1)] - m[index(box.r1, box.g1, box.b0)]
+				- m[index(box.r1, box.g0, box.b1)] + m[index(box.r1, box.g0, box.b0)]
+				- m[index(box.r0, box.g1, box.b1)] + m[index(box.r0, box.g1, box.b0)]
+				+ m[index(box.r0, box.g0, box.b1)] - m[index(box.r0, box.g0, box.b0)];
+	}
+
+	/**
+	 * Returns the sum of the given moment over the part of the box below its lower face along the given axis (0 for r,
+	 * 1 for g, 2 for b), with the sign it takes in {@link #getVolume(Box, long[])}. Adding the part up to a position
+	 * along the axis, from {@link #getTop(Box, int, int, long[])}, gives the sum over the box up to that position.
+	 */
+	private static long getBottom(Box box, int axis, long[] m) {
+		return switch (axis) {
+			case 0 -> -m[index(box.r0, box.g1, box.b1)] + m[index(box.r0, box.g1, box.b0)]
+					+ m[index(box.r0, box.g0, box.b1)] - m[index(box.r0, box.g0, box.b0)];
+			case 1 -> -m[index(box.r1, box.g0, box.b1)] + m[index(box.r1, box.g0, box.b0)]
+					+ m[index(box.r0, box.g0, box.b1)] - m[index(box.r0, box.g0, box.b0)];
+			default -> -m[index(box.r1, box.g1, box.b0)] + m[index(box.r1, box.g0, box.b0)]
+					+ m[index(box.r0, box.g1, box.b0)] - m[index(box.r0, box.g0, box.b0)];
+		};
+	}
+
+	/**
+	 * Returns the sum of the given moment over the part of the box at or below the given position along the given
+	 * axis, less {@link #getBottom(Box, int, long[])}.
+	 */
+	private static long getTop(Box box, int axis, int pos, long[] m) {
+		return switch (axis) {
+			case 0 -> m[index(pos, box.g1, box.b1)] - m[index(pos, box.g1, box.b0)]
+					- m[index(pos, box.g0, box.b1)] + m[index(pos, box.g0, box.b0)];
+			case 1 -> m[index(box.r1, pos, box.b1)] - m[index(box.r1, pos, box.b0)]
+					- m[index(box.r0, pos, box.b1)] + m[index(box.r0, pos, box.b0)];
+			default -> m[index(box.r1, box.g1, pos)] - m[index(box.r1, box.g0, pos)]
+					- m[index(box.r0, box.g1, pos)] + m[index(box.r0, box.g0, pos)];
+		};
+	}
+
+	/**
+	 * The cumulative moments of a histogram, and the cutting of boxes that uses them. Each call to
+	 * {@link WuQuantizer#reduce(ColorHistogram, int)} makes its own, so that the quantizer holds no state.
+	 */
+	private static class Moments {
+
+		/**
+		 * Computes the cumulative moments of the given histogram.
+		 */
+		Moments(ColorHistogram h) {
+			int size = SIDE * SIDE * SIDE;
+			wt = new long[size];
+			mr = new long[size];
+			mg = new long[size];
+			mb = new long[size];
+			m2 = new double[size];
+			for (int i = 0; i < h.size(); i++) {
+				int rgb = h.getColor(i), count = h.getCount(i), bin = getBin(rgb);
+				int r = rgb >>> 16 & 0xff, g = rgb >>> 8 & 0xff, b = rgb & 0xff;
+				wt[bin] += count;
+				mr[bin] += (long) count * r;
+				mg[bin] += (long) count * g;
+				mb[bin] += (long) count * b;
+				m2[bin] += (double) count * (r * r + g * g + b * b);
+			}
+
+			// accumulate along b, then g, then r
+			for (int r = 1; r < SIDE; r++) {
+				for (int g = 1; g < SIDE; g++) {
+					for (int b = 1; b < SIDE; b++) {
+						int i = index(r, g, b), bPrev = index(r, g, b - 1);
+						wt[i] += wt[bPrev];
+						mr[i] += mr[bPrev];
+						mg[i] += mg[bPrev];
+						mb[i] += mb[bPrev];
+						m2[i] += m2[bPrev];
+					}
+				}
+			}
+			for (int r = 1; r < SIDE; r++) {
+				for (int g = 1; g < SIDE; g++) {
+					for (int b = 1; b < SIDE; b++) {
+						int i = index(r, g, b), gPrev = index(r, g - 1, b);
+						wt[i] += wt[gPrev];
+						mr[i] += mr[gPrev];
+						mg[i] += mg[gPrev];
+						mb[i] += mb[gPrev];
+						m2[i] += m2[gPrev];
+					}
+				}
+			}
+			for (int r = 1; r < SIDE; r++) {
+				for (int g = 1; g < SIDE; g++) {
+					for (int b = 1; b < SIDE; b++) {
+						int i = index(r, g, b), rPrev = index(r - 1, g, b);
+						wt[i] += wt[rPrev];
+						mr[i] += mr[rPrev];
+						mg[i] += mg[rPrev];
+						mb[i] += mb[rPrev];
+						m2[i] += m2[rPrev];
+					}
+				}
+			}
+		}
+
+		// fields
+
+		// cumulative moments: the number of pixels, the sums of each component, and the sum of squared components, of
+		// every bin at or before each bin along all three axes
+		private final long[] wt, mr, mg, mb;
+		private final double[] m2;
+
+		// methods
+
+		/**
+		 * Cuts the box of all the bins until there are the given number of boxes or none can be cut, and makes each
+		 * box a color of the palette.
+		 */
+		Result cutBoxes(ColorHistogram h, int nColors) {
+			Box[] boxes = new Box[nColors];
+			double[] variances = new double[nColors];
+			boxes[0] = new Box();
+			boxes[0].r1 = boxes[0].g1 = boxes[0].b1 = SIDE - 1;
+			int nBoxes = 1, next = 0;
+			while (nBoxes < nColors) {
+				Box box = new Box();
+				if (cut(boxes[next], box)) {
+					boxes[nBoxes] = box;
+					variances[next] = boxes[next].getVolume() > 1 ? getVariance(boxes[next]) : 0;
+					variances[nBoxes] = box.getVolume() > 1 ? getVariance(box) : 0;
+					nBoxes++;
+				} else {
+					variances[next] = 0; // can't cut this one
+				}
+
+				next = 0;
+				for (int b = 1; b < nBoxes; b++)
+					if (variances[b] > variances[next])
+						next = b;
+				if (variances[next] <= 0)
+					break;
+			}
+
+			int[] palette = new int[nBoxes];
+			for (int b = 0; b < nBoxes; b++) {
+				Box box = boxes[b];
+				long w = getVolume(box, wt);
+				palette[b] = w == 0 ? 0xff000000 : 0xff000000 | (int) ((getVolume(box, mr) + w / 2) / w) << 16
+						| (int) ((getVolume(box, mg) + w / 2) / w) << 8 | (int) ((getVolume(box, mb) + w / 2) / w);
+			}
+
+			return new Result(palette, Quantizer.assignNearest(h, palette));
+		}
+
+		/**
+		 * Returns the weighted variance of the colors in the given box, times their weight.
+		 */
+		private double getVariance(Box box) {
+			double r = getVolume(box, mr), g = getVolume(box, mg), b = getVolume(box, mb);
+			return getVolume(box, m2) - (r * r + g * g + b * b) / getVolume(box, wt);
+		}
+
+		/**
+		 * Finds the position along the given axis at which cutting the box leaves the two halves with the least
+		 * variance, which is when the sum over both halves of (sum of components)^2 / weight is greatest.
+		 * 
+		 * @return the best value of that sum and the position of the cut, or a value of -1 if the box can't be cut
+		 */
+		private double[] maximize(Box box, int axis, int first, int last, long wholeR, long wholeG, long wholeB,
+				long wholeW) {
+			long baseR = getBottom(box, axis, mr), baseG = getBottom(box, axis, mg), baseB = getBottom(box, axis, mb);
+			long baseW = getBottom(box, axis, wt);
+			double max = 0;
+			int cut = -1;
+			for (int pos = first; pos < last; pos++) {
+				long halfR = baseR + getTop(box, axis, pos, mr), halfG = baseG + getTop(box, axis, pos, mg);
+				long halfB = baseB + getTop(box, axis, pos, mb), halfW = baseW + getTop(box, axis, pos, wt);
+				if (halfW == 0) // the lower half must not be empty
+					continue;
+				double temp = ((double) halfR * halfR + (double) halfG * halfG + (double) halfB * halfB) / halfW;
+				halfR = wholeR - halfR;
+				halfG = wholeG - halfG;
+				halfB = wholeB - halfB;
+				halfW = wholeW - halfW;
+				if (halfW == 0) // nor may the upper half
+					continue;
+				temp += ((double) halfR * halfR + (double) halfG * halfG + (double) halfB * halfB) / halfW;
+				if (temp > max) {
+					max = temp;
+					cut = pos;
+				}
+			}
+			return new double[] { cut < 0 ? -1 : max, cut };
+		}
+
+		/**
+		 * Cuts the first box in two where that reduces variance most, making the second box the upper part.
+		 * 
+		 * @return false if the box can't be cut
+		 */
+		private boolean cut(Box box1, Box box2) {
+			long wholeR = getVolume(box1, mr), wholeG = getVolume(box1, mg), wholeB = getVolume(box1, mb);
+			long wholeW = getVolume(box1, wt);
+
+			double[] maxR = maximize(box1, 0, box1.r0 + 1, box1.r1, wholeR, wholeG, wholeB, wholeW);
+			double[] maxG = maximize(box1, 1, box1.g0 + 1, box1.g1, wholeR, wholeG, wholeB, wholeW);
+			double[] maxB = maximize(box1, 2, box1.b0 + 1, box1.b1, wholeR, wholeG, wholeB, wholeW);
+
+			int axis;
+			if (maxR[0] >= maxG[0] && maxR[0] >= maxB[0]) {
+				axis = 0;
+				if (maxR[1] < 0)
+					return false; // can't split the box
+			} else if (maxG[0] >= maxR[0] && maxG[0] >= maxB[0]) {
+				axis = 1;
+			} else {
+				axis = 2;
+			}
+
+			box2.r1 = box1.r1;
+			box2.g1 = box1.g1;
+			box2.b1 = box1.b1;
+			switch (axis) {
+				case 0 -> {
+					box2.r0 = box1.r1 = (int) maxR[1];
+					box2.g0 = box1.g0;
+					box2.b0 = box1.b0;
+				}
+				case 1 -> {
+					box2.g0 = box1.g1 = (int) maxG[1];
+					box2.r0 = box1.r0;
+					box2.b0 = box1.b0;
+				}
+				default -> {
+					box2.b0 = box1.b1 = (int) maxB[1];
+					box2.r0 = box1.r0;
+					box2.g0 = box1.g0;
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -1,13 +1,33 @@
 package io;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import canvas.ColorHistogram;
+import canvas.PaletteIndex;
+import canvas.Quantizer;
 
 // from http://www.java2s.com/Code/Java/2D-Graphics-GUI/AnimatedGifEncoder.htm
 /**
@@ -49,9 +69,11 @@ public class AnimatedGifEncoder {
 
 	protected OutputStream out;
 
+	protected FileChannel channel; // channel of the output file, through which frames are written, if writing a file
+
 	protected BufferedImage image; // current frame
 
-	protected byte[] pixels; // BGR byte array from frame
+	protected int[] pixels; // ARGB pixels of the current frame's rectangle, 0 where left transparent
 
 	protected byte[] indexedPixels; // converted frame indexed to palette
 
@@ -73,6 +95,34 @@ public class AnimatedGifEncoder {
 
 	protected int sample = 10; // default sample interval for quantizer
 
+	protected Quantizer quantizer = null; // quantizer to use instead of NeuQuant for frames of over 256 colors, if any
+
+	protected int[] globalPalette = null; // palette shared by every frame, if any
+
+	protected PaletteIndex globalIndex = null; // nearest-color index of the global palette
+
+	protected static final int MAX_GLOBAL_SAMPLES = 1 << 22; // most pixels NeuQuant learns a global palette from
+
+	protected boolean differencing = false; // write only the part of each frame that changed
+
+	protected int[] heldPixels; // ARGB pixels of the last frame added, held until the next one decides its disposal
+
+	protected int[] shownPixels; // ARGB pixels of the last frame planned, or null before the first
+
+	protected Rectangle cleared; // part of shownPixels cleared to the background after it is shown, or null
+
+	protected int frameX, frameY, frameWidth, frameHeight; // part of the screen covered by the current frame
+
+	protected int disposal; // disposal code of the current frame
+
+	protected boolean hasTransparency; // whether the current frame has pixels left transparent
+
+	protected Queue<int[]> pixelBuffers = new ConcurrentLinkedQueue<>(); // spare arrays of width * height ints
+
+	protected Queue<byte[]> indexBuffers = new ConcurrentLinkedQueue<>(); // spare arrays of width * height bytes
+
+	protected Queue<ByteBufferOutputStream> blockBuffers = new ConcurrentLinkedQueue<>(); // spare frame buffers
+
 	/**
 	 * Sets the delay time between each frame, or changes it for subsequent frames (applies to last frame added).
 	 * 
@@ -83,8 +133,9 @@ public class AnimatedGifEncoder {
 	}
 
 	/**
-	 * Sets the GIF frame disposal code for the last added frame and any subsequent frames. Default is 0 if no
-	 * transparent color has been set, otherwise 2.
+	 * Sets the GIF frame disposal code for the last added frame and any subsequent frames. Default is 2 if a
+	 * transparent color has been set or if the next frame leaves transparent some pixel that the frame covers, and
+	 * otherwise 0, or 1 if differencing.
 	 * 
 	 * @param code int disposal code.
 	 */
@@ -110,7 +161,8 @@ public class AnimatedGifEncoder {
 	/**
 	 * Sets the transparent color for the last added frame and any subsequent frames. Since all colors are subject to
 	 * modification in the quantization process, the color in the final palette for each frame closest to the given
-	 * color becomes the transparent color for that frame. May be set to null to indicate no transparent color.
+	 * color becomes the transparent color for that frame. May be set to null to indicate no transparent color, in which
+	 * case pixels with an alpha of 0 are left transparent.
 	 * 
 	 * @param c Color to be treated as transparent on display.
 	 */
@@ -120,7 +172,7 @@ public class AnimatedGifEncoder {
 
 	/**
 	 * Adds next GIF frame. The frame is not written immediately, but is actually deferred until the next frame is
-	 * received so that timing data can be inserted. Invoking <code>finish()</code> flushes all frames. If
+	 * received, which decides how the frame is disposed of. Invoking <code>finish()</code> flushes all frames. If
 	 * <code>setSize</code> was not invoked, the size of the first image is used for all subsequent frames.
 	 * 
 	 * @param im BufferedImage containing frame to write.
@@ -137,23 +189,10 @@ public class AnimatedGifEncoder {
 				setSize(im.getWidth(), im.getHeight());
 			}
 			image = im;
-			getImagePixels(); // convert to correct format if necessary
-			analyzePixels(); // build color table & map pixels
-			if (firstFrame) {
-				writeLSD(); // logical screen descriptior
-				writePalette(); // global color table
-				if (repeat >= 0) {
-					// use NS app extension to indicate reps
-					writeNetscapeExt();
-				}
-			}
-			writeGraphicCtrlExt(); // write graphic control extension
-			writeImageDesc(); // image descriptor
-			if (!firstFrame) {
-				writePalette(); // local color table
-			}
-			writePixels(); // encode and write pixel data
-			firstFrame = false;
+			getImagePixels(); // read the pixels into a reused buffer
+			if (heldPixels != null)
+				writeEncodedFrame(encodeFrame(planFrame(heldPixels, pixels), globalIndex));
+			heldPixels = pixels;
 		} catch (IOException e) {
 			ok = false;
 		}
@@ -161,6 +200,360 @@ public class AnimatedGifEncoder {
 		return ok;
 	}
 
+	/**
+	 * A frame planned by {@link AnimatedGifEncoder#planFrame(int[], int[])}, ready to be encoded.
+	 * 
+	 * @param pixels   the ARGB pixels of the frame within its bounds, 0 where left transparent
+	 * @param bounds   the part of the screen the frame covers
+	 * @param disposal the disposal code of the frame
+	 * @param first    whether this is the first frame, whose palette goes in the global color table
+	 */
+	protected static record FramePlan(int[] pixels, Rectangle bounds, int disposal, boolean first) {
+	}
+
+	/**
+	 * An encoded frame, ready to be written.
+	 * 
+	 * @param colorTab the palette of the frame
+	 * @param palSize  size of the palette, as in {@link AnimatedGifEncoder#palSize}
+	 * @param blocks   the graphic control extension, image descriptor, local color table if any, and pixel data
+	 */
+	protected static record EncodedFrame(byte[] colorTab, int palSize, ByteBufferOutputStream blocks) {
+	}
+
+	/**
+	 * Adds the given frames, as if by {@link #addFrame(BufferedImage)} for each in turn. Frames are made, read,
+	 * analyzed and compressed in parallel on a pool of worker threads, a few at a time, and written in order. As with
+	 * {@link #addFrame(BufferedImage)}, the last frame is held until the next is added or {@link #finish()} is
+	 * invoked. The quantizer, if any, must be safe to use from several threads at once.
+	 * 
+	 * @param frames    supplies each frame, on a worker thread
+	 * @param progress  told the number of frames written after each is written, on the calling thread; may be null
+	 * @param cancelled checked before each frame is written; once true, no more frames are written. May be null.
+	 * @return true if every frame but the last was written, or false if cancelled or interrupted
+	 * @throws IOException if a frame could not be written, or could not be made for an {@link IOException}
+	 */
+	public boolean addFrames(List<? extends Supplier<BufferedImage>> frames, IntConsumer progress,
+			BooleanSupplier cancelled) throws IOException {
+		if (!started)
+			return false;
+		int window = 2 * Runtime.getRuntime().availableProcessors(); // most frames being encoded at once
+		var pool = newPool();
+		ThreadLocal<PaletteIndex> indices = globalPalette == null ? null
+				: ThreadLocal.withInitial(() -> new PaletteIndex(globalPalette));
+		var pending = new ArrayDeque<Future<EncodedFrame>>();
+		try {
+			var reader = new FrameReader(frames, pool);
+			int written = 0;
+			for (int i = 0; i < frames.size(); i++) {
+				// frames are planned in order, each once the frame after it is read
+				int[] framePixels = reader.next();
+				if (heldPixels != null) {
+					FramePlan plan = planFrame(heldPixels, framePixels);
+					pending.add(pool.submit(() -> encodeFrame(plan, indices == null ? null : indices.get())));
+				}
+				heldPixels = framePixels;
+				while (!pending.isEmpty() && (pending.size() >= window || pending.peek().isDone())) {
+					if (cancelled != null && cancelled.getAsBoolean())
+						return false;
+					writeEncodedFrame(pending.poll().get());
+					if (progress != null)
+						progress.accept(++written);
+				}
+			}
+			while (!pending.isEmpty()) {
+				if (cancelled != null && cancelled.getAsBoolean())
+					return false;
+				writeEncodedFrame(pending.poll().get());
+				if (progress != null)
+					progress.accept(++written);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			throw failure(e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns a pool of worker threads, one for each processor, that do not keep the program running.
+	 */
+	private static ExecutorService newPool() {
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			var t = new Thread(r, "gif-encoder");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Returns the cause of a task that failed on a worker thread, as an {@link IOException} to throw. Unchecked
+	 * causes other than an {@link UncheckedIOException} are thrown as they are.
+	 */
+	private static IOException failure(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof UncheckedIOException u)
+			return u.getCause();
+		if (cause instanceof IOException io)
+			return io;
+		if (cause instanceof RuntimeException r)
+			throw r;
+		if (cause instanceof Error err)
+			throw err;
+		return new IOException(cause);
+	}
+
+	/**
+	 * Makes and reads frames on a pool of worker threads, a few ahead of the one asked for, and hands out their
+	 * pixels in order. If the size is not set, it is set from the first frame.
+	 */
+	private class FrameReader {
+
+		/**
+		 * @param frames supplies each frame, on a worker thread
+		 * @param pool   the worker threads
+		 */
+		FrameReader(List<? extends Supplier<BufferedImage>> frames, ExecutorService pool) {
+			this.frames = frames;
+			this.pool = pool;
+			window = 2 * Runtime.getRuntime().availableProcessors();
+		}
+
+		// fields
+
+		private final List<? extends Supplier<BufferedImage>> frames;
+		private final ExecutorService pool;
+		private final int window; // most frames being made and read at once
+		private final Queue<Future<int[]>> read = new ArrayDeque<>();
+		private int next = 0; // index of the next frame to start reading
+
+		// methods
+
+		/**
+		 * Returns the ARGB pixels of the next frame, as from {@link AnimatedGifEncoder#getPixels(BufferedImage)},
+		 * waiting for it to be read if need be.
+		 */
+		int[] next() throws InterruptedException, ExecutionException {
+			if (next == 0 && !sizeSet) {
+				// the size of the first frame is needed before any frame can be read
+				BufferedImage im = pool.submit(frames.get(0)::get).get();
+				setSize(im.getWidth(), im.getHeight());
+				read.add(pool.submit(() -> getPixels(im)));
+				next++;
+			}
+			while (next < frames.size() && read.size() < window) {
+				var frame = frames.get(next++);
+				read.add(pool.submit(() -> getPixels(frame.get())));
+			}
+			return read.remove().get();
+		}
+
+	}
+
+	/**
+	 * Decides the bounds and disposal of the given frame, and copies its pixels within the bounds. If differencing,
+	 * the bounds are the smallest rectangle holding every pixel that differs from what is shown once the previous
+	 * frame is disposed of, and pixels in it that did not change are left transparent, so that what is shown shows
+	 * through. If the next frame leaves transparent some pixel that the frame covers, the frame is cleared to the
+	 * background after it is shown, and its bounds cover those pixels too. Frames must be planned in order.
+	 * 
+	 * @param frame the ARGB pixels of the frame, as from {@link #getPixels(BufferedImage)}
+	 * @param next  the ARGB pixels of the next frame, or null if there is none
+	 * @return the plan
+	 */
+	protected FramePlan planFrame(int[] frame, int[] next) {
+		boolean isFirst = shownPixels == null;
+		boolean diff = differencing && !isFirst && transparent == null;
+		int x0 = 0, y0 = 0, x1 = width - 1, y1 = height - 1;
+		int disp;
+		if (transparent != null) {
+			disp = 2; // force clear if using transparent color
+		} else {
+			if (diff) {
+				x0 = width;
+				y0 = height;
+				x1 = y1 = -1;
+				for (int y = 0; y < height; y++) {
+					int row = y * width;
+					boolean inCleared = cleared != null && y >= cleared.y && y < cleared.y + cleared.height;
+					int first = inCleared ? 0 : Arrays.mismatch(frame, row, row + width, shownPixels, row, row + width);
+					if (first < 0)
+						continue;
+					int last = width - 1;
+					while (first <= last && isShown(frame[row + first], first, y))
+						first++;
+					while (last > first && isShown(frame[row + last], last, y))
+						last--;
+					if (first > last)
+						continue;
+					x0 = Math.min(x0, first);
+					x1 = Math.max(x1, last);
+					y0 = Math.min(y0, y);
+					y1 = y;
+				}
+			}
+			// find the pixels the next frame leaves transparent that this one covers
+			int kx0 = width, ky0 = height, kx1 = -1, ky1 = -1;
+			if (next != null) {
+				for (int y = 0; y < height; y++) {
+					int row = y * width, first = 0, last = width - 1;
+					while (first <= last && !isCovered(frame[row + first], next[row + first]))
+						first++;
+					while (last > first && !isCovered(frame[row + last], next[row + last]))
+						last--;
+					if (first > last)
+						continue;
+					kx0 = Math.min(kx0, first);
+					kx1 = Math.max(kx1, last);
+					ky0 = Math.min(ky0, y);
+					ky1 = y;
+				}
+			}
+			if (ky1 >= 0) {
+				disp = 2; // clear them, for the next frame to leave transparent
+				x0 = Math.min(x0, kx0);
+				x1 = Math.max(x1, kx1);
+				y0 = Math.min(y0, ky0);
+				y1 = Math.max(y1, ky1);
+			} else {
+				disp = differencing ? 1 : 0; // leave in place, for the next frame to draw its changes over
+			}
+			if (y1 < 0) // nothing changed, but the frame is still needed for its delay
+				x0 = x1 = y0 = y1 = 0;
+		}
+		if (dispose >= 0) {
+			disp = dispose & 7; // user override
+		}
+
+		var bounds = new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+		int[] cropped = takePixels();
+		int keyed = transparent == null ? 0 : transparent.getRGB() | 0xff000000;
+		for (int y = y0, j = 0; y <= y1; y++) {
+			for (int x = x0, k = y * width + x0; x <= x1; x++, j++, k++) {
+				int c = frame[k];
+				if (c >>> 24 == 0)
+					cropped[j] = keyed;
+				else
+					cropped[j] = diff && isShown(c, x, y) ? 0 : c | 0xff000000;
+			}
+		}
+
+		if (shownPixels != null)
+			pixelBuffers.add(shownPixels);
+		shownPixels = frame;
+		cleared = disp == 2 ? bounds : null;
+		return new FramePlan(cropped, bounds, disp, isFirst);
+	}
+
+	/**
+	 * Returns whether the given color is what is shown at the given pixel once the last frame planned is disposed of.
+	 * Pixels with an alpha of 0 are transparent, and all others opaque.
+	 */
+	private boolean isShown(int c, int x, int y) {
+		int shown = cleared != null && cleared.contains(x, y) ? 0 : shownPixels[y * width + x];
+		if (c == shown)
+			return true;
+		if (c >>> 24 == 0 || shown >>> 24 == 0)
+			return c >>> 24 == 0 && shown >>> 24 == 0;
+		return (c ^ shown) << 8 == 0;
+	}
+
+	/**
+	 * Returns whether a pixel of the given color is covered by a frame and left transparent by the next.
+	 */
+	private static boolean isCovered(int c, int next) {
+		return c >>> 24 != 0 && next >>> 24 == 0;
+	}
+
+	/**
+	 * Encodes the given frame on a new encoder with the settings of this one, so that several frames can be encoded
+	 * at once. The pixels of the plan are given back to the pool of buffers.
+	 * 
+	 * @param plan  the frame
+	 * @param index nearest-color index of the global palette, or null if there is no global palette
+	 */
+	protected EncodedFrame encodeFrame(FramePlan plan, PaletteIndex index) {
+		var e = new AnimatedGifEncoder();
+		e.width = width;
+		e.height = height;
+		e.sizeSet = true;
+		e.transparent = transparent;
+		e.delay = delay;
+		e.sample = sample;
+		e.quantizer = quantizer;
+		e.globalPalette = globalPalette;
+		e.globalIndex = index;
+		e.pixelBuffers = pixelBuffers;
+		e.indexBuffers = indexBuffers;
+		e.firstFrame = plan.first();
+		var blocks = blockBuffers.poll();
+		if (blocks == null)
+			blocks = new ByteBufferOutputStream(width * height);
+		blocks.reset();
+		e.out = blocks;
+		e.pixels = plan.pixels();
+		e.frameX = plan.bounds().x;
+		e.frameY = plan.bounds().y;
+		e.frameWidth = plan.bounds().width;
+		e.frameHeight = plan.bounds().height;
+		e.disposal = plan.disposal();
+		try {
+			e.analyzePixels();
+			e.writeFrame();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} finally {
+			pixelBuffers.add(plan.pixels());
+			if (e.indexedPixels != null)
+				indexBuffers.add(e.indexedPixels);
+		}
+		return new EncodedFrame(e.colorTab, e.palSize, blocks);
+	}
+
+	/**
+	 * Writes a frame encoded by {@link #encodeFrame(FramePlan, PaletteIndex)}, preceded by the header blocks if it is
+	 * the first, and gives its buffer back to the pool.
+	 */
+	protected void writeEncodedFrame(EncodedFrame encoded) throws IOException {
+		if (firstFrame) {
+			colorTab = encoded.colorTab();
+			palSize = encoded.palSize();
+			writeLSD(); // logical screen descriptior
+			writePalette(); // global color table
+			if (repeat >= 0) {
+				// use NS app extension to indicate reps
+				writeNetscapeExt();
+			}
+		}
+		ByteBuffer blocks = encoded.blocks().getBuffer();
+		if (channel != null) {
+			out.flush(); // the header, ahead of the frame
+			while (blocks.hasRemaining())
+				channel.write(blocks);
+		} else {
+			out.write(blocks.array(), blocks.arrayOffset() + blocks.position(), blocks.remaining());
+		}
+		blockBuffers.add(encoded.blocks());
+		firstFrame = false;
+	}
+
+	/**
+	 * Writes the analyzed frame: the graphic control extension, image descriptor, local color table if needed, and
+	 * pixel data.
+	 */
+	protected void writeFrame() throws IOException {
+		writeGraphicCtrlExt(); // write graphic control extension
+		writeImageDesc(); // image descriptor
+		if (!firstFrame && globalPalette == null) {
+			writePalette(); // local color table
+		}
+		writePixels(); // encode and write pixel data
+	}
+
 	/**
 	 * Flushes any pending data and closes output file. If writing to an OutputStream, the stream is not closed.
 	 */
@@ -170,26 +563,67 @@ public class AnimatedGifEncoder {
 		boolean ok = true;
 		started = false;
 		try {
+			if (heldPixels != null)
+				writeEncodedFrame(encodeFrame(planFrame(heldPixels, null), globalIndex));
 			out.write(0x3b); // gif trailer
 			out.flush();
 			if (closeStream) {
 				out.close();
 			}
-		} catch (IOException e) {
+		} catch (IOException | UncheckedIOException e) {
 			ok = false;
+			closeOutput();
 		}
+		reset();
+		return ok;
+	}
+
+	/**
+	 * Stops writing without flushing the held frame or writing the trailer, leaving the output incomplete, and closes
+	 * the output file. If writing to an OutputStream, the stream is not closed. Does nothing if not started.
+	 */
+	public void abort() {
+		if (!started)
+			return;
+		started = false;
+		closeOutput();
+		reset();
+	}
 
-		// reset for subsequent use
+	/**
+	 * Closes the output file, if writing one, without writing anything more.
+	 */
+	private void closeOutput() {
+		if (!closeStream)
+			return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Resets the encoder for subsequent use.
+	 */
+	private void reset() {
 		transIndex = 0;
 		out = null;
+		channel = null;
 		image = null;
 		pixels = null;
 		indexedPixels = null;
 		colorTab = null;
+		globalPalette = null;
+		globalIndex = null;
+		heldPixels = null;
+		shownPixels = null;
+		cleared = null;
+		pixelBuffers.clear();
+		indexBuffers.clear();
+		blockBuffers.clear();
 		closeStream = false;
 		firstFrame = true;
-
-		return ok;
 	}
 
 	/**
@@ -218,6 +652,143 @@ public class AnimatedGifEncoder {
 		sample = quality;
 	}
 
+	/**
+	 * Sets the quantizer used to choose the palette of each frame with over 256 colors. If null, which is the default,
+	 * NeuQuant is used at the quality set by {@link #setQuality(int)}. Frames of at most 256 colors are never
+	 * quantized.
+	 * 
+	 * @param quantizer the quantizer, or null
+	 */
+	public void setQuantizer(Quantizer quantizer) {
+		this.quantizer = quantizer;
+	}
+
+	/**
+	 * Sets whether to write only the smallest rectangle of each frame holding every pixel that differs from what the
+	 * previous frames left shown. Pixels in the rectangle that did not change are left transparent, so that what is
+	 * shown shows through. Has no effect on frames with a transparent color set by {@link #setTransparent(Color)}.
+	 * Must be invoked before the first image is added.
+	 * 
+	 * @param differencing true to write only changes
+	 */
+	public void setDifferencing(boolean differencing) {
+		if (hasFrames())
+			return;
+		this.differencing = differencing;
+	}
+
+	/**
+	 * Makes every frame use the given palette, written once as the global color table, instead of choosing a palette
+	 * and writing a local color table for each frame. Each pixel becomes the nearest color of the palette. Must be
+	 * invoked before the first image is added.
+	 * 
+	 * @param palette at most 255 colors, leaving an entry for transparent pixels; alpha is ignored
+	 */
+	public void setGlobalPalette(int[] palette) {
+		if (palette.length < 1 || palette.length > 255)
+			throw new IllegalArgumentException("A gif palette must have 1 to 255 colors, not " + palette.length);
+		if (hasFrames())
+			return;
+		globalPalette = palette.clone();
+		globalIndex = new PaletteIndex(globalPalette);
+	}
+
+	/**
+	 * Chooses a palette for all the given frames together and sets it as the global palette, as in
+	 * {@link #setGlobalPalette(int[])}. If the frames have at most 255 colors between them, those colors are the
+	 * palette. Otherwise the palette is chosen by the quantizer from the colors of every pixel of the frames, or by
+	 * NeuQuant if there is none, from every pixel or from an even sample of them if there are more than
+	 * {@value #MAX_GLOBAL_SAMPLES}. Transparent pixels are left out. Frames are made and read in parallel, a few at a time, as in
+	 * {@link #addFrames(List, IntConsumer, BooleanSupplier)}, so that they need not all be in memory at once. Must be
+	 * invoked before the first image is added.
+	 * 
+	 * @param frames    supplies each frame that will be added, on a worker thread
+	 * @param progress  told the number of frames analyzed after each is analyzed, on the calling thread; may be null
+	 * @param cancelled checked before each frame is analyzed; once true, no palette is set. May be null.
+	 * @return true if the palette was set, or false if cancelled or interrupted
+	 * @throws IOException if a frame could not be made for an {@link IOException}
+	 */
+	public boolean analyzeFrames(List<? extends Supplier<BufferedImage>> frames, IntConsumer progress,
+			BooleanSupplier cancelled) throws IOException {
+		if (frames.isEmpty() || hasFrames())
+			return false;
+		var pool = newPool();
+		var histogram = new ColorHistogram();
+		byte[] samples = null; // BGR, for NeuQuant
+		int nSamples = 0;
+		try {
+			var reader = new FrameReader(frames, pool);
+			int frameSize = 0, step = 1;
+			long next = 0; // index of the next pixel to sample, counting through all frames
+			long start = 0; // index of the first pixel of the current frame
+			for (int i = 0; i < frames.size(); i++) {
+				if (cancelled != null && cancelled.getAsBoolean())
+					return false;
+				int[] argb = reader.next();
+				if (samples == null) { // the size is known once the first frame is read
+					frameSize = width * height;
+					long total = (long) frameSize * frames.size();
+					step = (int) ((total + MAX_GLOBAL_SAMPLES - 1) / MAX_GLOBAL_SAMPLES);
+					samples = new byte[3 * (int) ((total + step - 1) / step)];
+				}
+				for (int c : argb)
+					if (c >>> 24 != 0)
+						histogram.add(c, 1);
+				for (; next < start + frameSize; next += step) {
+					int c = argb[(int) (next - start)];
+					if (c >>> 24 == 0)
+						continue;
+					samples[3 * nSamples] = (byte) c;
+					samples[3 * nSamples + 1] = (byte) (c >> 8);
+					samples[3 * nSamples + 2] = (byte) (c >> 16);
+					nSamples++;
+				}
+				start += frameSize;
+				pixelBuffers.add(argb);
+				if (progress != null)
+					progress.accept(i + 1);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			throw failure(e);
+		} finally {
+			pool.shutdownNow();
+		}
+		if (histogram.size() == 0) // every pixel is transparent
+			histogram.add(0, 1);
+
+		int[] palette;
+		int maxColors = 255; // leave an entry for transparent pixels
+		if (histogram.size() <= maxColors) {
+			palette = Quantizer.exact(histogram).palette();
+		} else if (quantizer != null) {
+			palette = quantizer.quantize(histogram, maxColors).palette();
+		} else {
+			byte[] tab = new NeuQuant(samples, 3 * nSamples, sample).process(); // BGR
+			int[] counts = new int[tab.length / 3];
+			palette = new int[tab.length / 3];
+			for (int i = 0; i < palette.length; i++)
+				palette[i] = (tab[3 * i + 2] & 0xff) << 16 | (tab[3 * i + 1] & 0xff) << 8 | tab[3 * i] & 0xff;
+			// NeuQuant always makes 256 colors, so drop the one that the fewest sampled pixels are nearest
+			var index = new PaletteIndex(palette);
+			for (int i = 0; i < nSamples; i++)
+				counts[index.map((samples[3 * i + 2] & 0xff) << 16 | (samples[3 * i + 1] & 0xff) << 8
+						| samples[3 * i] & 0xff)]++;
+			palette = without(palette, leastUsed(counts));
+		}
+		setGlobalPalette(palette);
+		return true;
+	}
+
+	/**
+	 * Returns whether frames have been added since the encoder was started.
+	 */
+	private boolean hasFrames() {
+		return started && (!firstFrame || heldPixels != null);
+	}
+
 	/**
 	 * Sets the GIF frame size. The default size is the size of the first frame added if this method is not invoked.
 	 * 
@@ -225,7 +796,7 @@ public class AnimatedGifEncoder {
 	 * @param h int frame width.
 	 */
 	public void setSize(int w, int h) {
-		if (started && !firstFrame)
+		if (hasFrames())
 			return;
 		width = w;
 		height = h;
@@ -234,6 +805,8 @@ public class AnimatedGifEncoder {
 		if (height < 1)
 			height = 240;
 		sizeSet = true;
+		pixelBuffers.clear();
+		indexBuffers.clear();
 	}
 
 	/**
@@ -248,6 +821,7 @@ public class AnimatedGifEncoder {
 		boolean ok = true;
 		closeStream = false;
 		out = os;
+		channel = null;
 		try {
 			writeString("GIF89a"); // header
 		} catch (IOException e) {
@@ -257,7 +831,8 @@ public class AnimatedGifEncoder {
 	}
 
 	/**
-	 * Initiates writing of a GIF file with the specified name.
+	 * Initiates writing of a GIF file with the specified name. Frames are written straight from their buffers to the
+	 * file's channel.
 	 * 
 	 * @param file String containing output file name.
 	 * @return false if open or initial write failed.
@@ -265,8 +840,9 @@ public class AnimatedGifEncoder {
 	public boolean start(String file) {
 		boolean ok = true;
 		try {
-			out = new BufferedOutputStream(new FileOutputStream(file));
-			ok = start(out);
+			var stream = new FileOutputStream(file);
+			ok = start(new BufferedOutputStream(stream));
+			channel = stream.getChannel();
 			closeStream = true;
 		} catch (IOException e) {
 			ok = false;
@@ -275,32 +851,191 @@ public class AnimatedGifEncoder {
 	}
 
 	/**
-	 * Analyzes image colors and creates color map.
+	 * Analyzes image colors and creates color map. A frame of at most 256 colors gets exactly those colors, with no
+	 * quantizing at all; otherwise {@link #quantizer} chooses the palette, or NeuQuant if there is none. If any pixel
+	 * is left transparent, an entry is kept free for it.
 	 */
 	protected void analyzePixels() {
-		int len = pixels.length;
-		int nPix = len / 3;
-		indexedPixels = new byte[nPix];
-		NeuQuant nq = new NeuQuant(pixels, len, sample);
+		int nPix = frameWidth * frameHeight;
+		indexedPixels = takeIndices();
+		hasTransparency = false;
+		if (globalPalette != null) {
+			analyzePixelsWithGlobalPalette();
+			return;
+		}
+		var histogram = new ColorHistogram();
+		int[] colorIndices = takePixels(); // index in the histogram of each pixel, or -1 if transparent
+		int i = 0;
+		for (; i < nPix && histogram.size() <= (hasTransparency ? 255 : 256); i++) {
+			if (pixels[i] == 0) {
+				hasTransparency = true;
+				colorIndices[i] = -1;
+			} else {
+				colorIndices[i] = histogram.add(pixels[i], 1);
+			}
+		}
+
+		Quantizer.Result result;
+		if (histogram.size() <= (hasTransparency ? 255 : 256)) {
+			result = Quantizer.exact(histogram);
+		} else if (quantizer != null) {
+			for (; i < nPix; i++) {
+				if (pixels[i] == 0) {
+					hasTransparency = true;
+					colorIndices[i] = -1;
+				} else {
+					colorIndices[i] = histogram.add(pixels[i], 1);
+				}
+			}
+			result = quantizer.quantize(histogram, hasTransparency ? 255 : 256);
+		} else {
+			pixelBuffers.add(colorIndices);
+			analyzePixelsWithNeuQuant();
+			return;
+		}
+
+		int[] palette = result.palette();
+		setColorTab(palette, hasTransparency ? 1 : 0);
+		int[] assignment = result.assignment();
+		for (int j = 0; j < nPix; j++) {
+			if (colorIndices[j] < 0)
+				continue;
+			int index = assignment[colorIndices[j]];
+			usedEntry[index] = true;
+			indexedPixels[j] = (byte) index;
+		}
+		pixelBuffers.add(colorIndices);
+		finishAnalysis();
+	}
+
+	/**
+	 * Maps image pixels to the nearest colors of {@link #globalPalette}, which always leaves an entry free.
+	 */
+	protected void analyzePixelsWithGlobalPalette() {
+		int nPix = frameWidth * frameHeight;
+		setColorTab(globalPalette, 1);
+		for (int i = 0; i < nPix; i++) {
+			if (pixels[i] == 0) {
+				hasTransparency = true;
+				continue;
+			}
+			int index = globalIndex.map(pixels[i]);
+			usedEntry[index] = true;
+			indexedPixels[i] = (byte) index;
+		}
+		finishAnalysis();
+	}
+
+	/**
+	 * Analyzes image colors and creates color map using NeuQuant.
+	 */
+	protected void analyzePixelsWithNeuQuant() {
+		int nPix = frameWidth * frameHeight;
+		byte[] bgr = new byte[3 * nPix];
+		int len = 0;
+		for (int i = 0; i < nPix; i++) {
+			int c = pixels[i];
+			if (c == 0) {
+				hasTransparency = true;
+				continue;
+			}
+			bgr[len++] = (byte) c;
+			bgr[len++] = (byte) (c >> 8);
+			bgr[len++] = (byte) (c >> 16);
+		}
+		NeuQuant nq = new NeuQuant(bgr, len, sample);
 		// initialize quantizer
 		colorTab = nq.process(); // create reduced palette
 		// convert map from BGR to RGB
+		int[] palette = new int[colorTab.length / 3];
 		for (int i = 0; i < colorTab.length; i += 3) {
 			byte temp = colorTab[i];
 			colorTab[i] = colorTab[i + 2];
 			colorTab[i + 2] = temp;
 			usedEntry[i / 3] = false;
+			palette[i / 3] = (colorTab[i] & 0xff) << 16 | (colorTab[i + 1] & 0xff) << 8 | colorTab[i + 2] & 0xff;
 		}
 		// map image pixels to new palette
-		int k = 0;
+		var paletteIndex = new PaletteIndex(palette);
+		int[] counts = new int[palette.length];
 		for (int i = 0; i < nPix; i++) {
-			int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
+			if (pixels[i] == 0)
+				continue;
+			int index = paletteIndex.map(pixels[i]);
 			usedEntry[index] = true;
 			indexedPixels[i] = (byte) index;
+			counts[index]++;
+		}
+		if (hasTransparency && counts[leastUsed(counts)] > 0) {
+			// free the least used entry for transparent pixels, moving its pixels to their next nearest colors
+			int least = leastUsed(counts);
+			var others = new PaletteIndex(without(palette, least));
+			for (int i = 0; i < nPix; i++) {
+				if (pixels[i] != 0 && (indexedPixels[i] & 0xff) == least) {
+					int index = others.map(pixels[i]);
+					indexedPixels[i] = (byte) (index < least ? index : index + 1);
+				}
+			}
+			usedEntry[least] = false;
 		}
-		pixels = null;
 		colorDepth = 8;
 		palSize = 7;
+		finishAnalysis();
+	}
+
+	/**
+	 * Returns the index of the smallest of the given counts, the first if there are several.
+	 */
+	private static int leastUsed(int[] counts) {
+		int least = 0;
+		for (int i = 1; i < counts.length; i++)
+			if (counts[i] < counts[least])
+				least = i;
+		return least;
+	}
+
+	/**
+	 * Returns a copy of the given palette without the color at the given index.
+	 */
+	private static int[] without(int[] palette, int index) {
+		int[] rest = new int[palette.length - 1];
+		System.arraycopy(palette, 0, rest, 0, index);
+		System.arraycopy(palette, index + 1, rest, index, rest.length - index);
+		return rest;
+	}
+
+	/**
+	 * Sets the color table to the given palette followed by the given number of spare entries, using the smallest
+	 * color table that holds them, and marks every entry unused.
+	 */
+	private void setColorTab(int[] palette, int nSpare) {
+		colorTab = new byte[3 * (palette.length + nSpare)];
+		for (int j = 0; j < palette.length; j++) {
+			colorTab[3 * j] = (byte) (palette[j] >>> 16);
+			colorTab[3 * j + 1] = (byte) (palette[j] >>> 8);
+			colorTab[3 * j + 2] = (byte) palette[j];
+		}
+		Arrays.fill(usedEntry, false);
+		colorDepth = Math.max(1, 32 - Integer.numberOfLeadingZeros(palette.length + nSpare - 1));
+		palSize = colorDepth - 1;
+	}
+
+	/**
+	 * Indexes the transparent pixels with an unused entry of the color table, which the analysis leaves free for them,
+	 * then finds the transparent color if one was given.
+	 */
+	private void finishAnalysis() {
+		if (hasTransparency) {
+			int free = 0;
+			while (usedEntry[free])
+				free++;
+			transIndex = free;
+			usedEntry[free] = true;
+			for (int i = 0; i < frameWidth * frameHeight; i++)
+				if (pixels[i] == 0)
+					indexedPixels[i] = (byte) free;
+		}
+		pixels = null;
 		// get closest match to transparent color if specified
 		if (transparent != null) {
 			transIndex = findClosest(transparent);
@@ -313,42 +1048,61 @@ public class AnimatedGifEncoder {
 	protected int findClosest(Color c) {
 		if (colorTab == null)
 			return -1;
-		int r = c.getRed();
-		int g = c.getGreen();
-		int b = c.getBlue();
-		int minpos = 0;
-		int dmin = 256 * 256 * 256;
-		int len = colorTab.length;
-		for (int i = 0; i < len;) {
-			int dr = r - (colorTab[i++] & 0xff);
-			int dg = g - (colorTab[i++] & 0xff);
-			int db = b - (colorTab[i] & 0xff);
-			int d = dr * dr + dg * dg + db * db;
-			int index = i / 3;
-			if (usedEntry[index] && (d < dmin)) {
-				dmin = d;
-				minpos = index;
+		// search only the entries in use
+		int[] used = new int[colorTab.length / 3], palette = new int[used.length];
+		int nUsed = 0;
+		for (int i = 0; i < used.length; i++) {
+			if (usedEntry[i]) {
+				used[nUsed] = i;
+				palette[nUsed++] = (colorTab[3 * i] & 0xff) << 16 | (colorTab[3 * i + 1] & 0xff) << 8
+						| colorTab[3 * i + 2] & 0xff;
 			}
-			i++;
 		}
-		return minpos;
+		if (nUsed == 0)
+			return 0;
+		return used[new PaletteIndex(Arrays.copyOf(palette, nUsed)).nearest(c.getRGB())];
 	}
 
 	/**
-	 * Extracts image pixels into byte array "pixels"
+	 * Extracts image pixels into int array "pixels"
 	 */
 	protected void getImagePixels() {
-		int w = image.getWidth();
-		int h = image.getHeight();
-		int type = image.getType();
-		if ((w != width) || (h != height) || (type != BufferedImage.TYPE_3BYTE_BGR)) {
-			// create new image with right size/format
-			BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-			Graphics2D g = temp.createGraphics();
-			g.drawImage(image, 0, 0, null);
-			image = temp;
+		pixels = getPixels(image);
+	}
+
+	/**
+	 * Returns the ARGB pixels of the given image at the frame size, in a buffer from the pool. Parts of the frame the
+	 * image does not reach are transparent. Rows of an image of type {@link BufferedImage#TYPE_INT_ARGB} are copied
+	 * straight out of its raster; other images are converted pixel by pixel.
+	 */
+	protected int[] getPixels(BufferedImage im) {
+		int[] argb = takePixels();
+		int w = Math.min(im.getWidth(), width), h = Math.min(im.getHeight(), height);
+		if (w < width || h < height)
+			Arrays.fill(argb, 0);
+		var raster = im.getRaster();
+		if (im.getType() == BufferedImage.TYPE_INT_ARGB && raster.getDataBuffer() instanceof DataBufferInt data
+				&& raster.getSampleModel() instanceof SinglePixelPackedSampleModel model) {
+			int stride = model.getScanlineStride();
+			int offset = data.getOffset()
+					+ model.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+			int[] bank = data.getData();
+			for (int y = 0; y < h; y++)
+				System.arraycopy(bank, offset + y * stride, argb, y * width, w);
+		} else {
+			im.getRGB(0, 0, w, h, argb, 0, width);
 		}
-		pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		return argb;
+	}
+
+	private int[] takePixels() {
+		int[] buffer = pixelBuffers.poll();
+		return buffer != null ? buffer : new int[width * height];
+	}
+
+	private byte[] takeIndices() {
+		byte[] buffer = indexBuffers.poll();
+		return buffer != null ? buffer : new byte[width * height];
 	}
 
 	/**
@@ -358,18 +1112,8 @@ public class AnimatedGifEncoder {
 		out.write(0x21); // extension introducer
 		out.write(0xf9); // GCE label
 		out.write(4); // data block size
-		int transp, disp;
-		if (transparent == null) {
-			transp = 0;
-			disp = 0; // dispose = no action
-		} else {
-			transp = 1;
-			disp = 2; // force clear if using transparent color
-		}
-		if (dispose >= 0) {
-			disp = dispose & 7; // user override
-		}
-		disp <<= 2;
+		int transp = transparent != null || hasTransparency ? 1 : 0;
+		int disp = disposal << 2; // as planned
 
 		// packed fields
 		out.write(0 | // 1:3 reserved
@@ -387,13 +1131,13 @@ public class AnimatedGifEncoder {
 	 */
 	protected void writeImageDesc() throws IOException {
 		out.write(0x2c); // image separator
-		writeShort(0); // image position x,y = 0,0
-		writeShort(0);
-		writeShort(width); // image size
-		writeShort(height);
+		writeShort(frameX); // image position
+		writeShort(frameY);
+		writeShort(frameWidth); // image size
+		writeShort(frameHeight);
 		// packed fields
-		if (firstFrame) {
-			// no LCT - GCT is used for first (or only) frame
+		if (firstFrame || globalPalette != null) {
+			// no LCT - GCT is used for first (or only) frame, or for every frame if shared
 			out.write(0);
 		} else {
 			// specify normal LCT
@@ -404,7 +1148,6 @@ public class AnimatedGifEncoder {
 					palSize); // 6-8 size of color table
 		}
 	}
-
 	/**
 	 * Writes Logical Screen Descriptor
 	 */
@@ -440,8 +1183,9 @@ public class AnimatedGifEncoder {
 	 * Writes color table
 	 */
 	protected void writePalette() throws IOException {
-		out.write(colorTab, 0, colorTab.length);
-		int n = (3 * 256) - colorTab.length;
+		int size = 3 * (2 << palSize); // as given in the descriptor
+		out.write(colorTab, 0, Math.min(colorTab.length, size));
+		int n = size - colorTab.length;
 		for (int i = 0; i < n; i++) {
 			out.write(0);
 		}
@@ -451,7 +1195,7 @@ public class AnimatedGifEncoder {
 	 * Encodes and writes pixel data
 	 */
 	protected void writePixels() throws IOException {
-		LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
+		LZWEncoder encoder = new LZWEncoder(frameWidth, frameHeight, indexedPixels, colorDepth);
 		encoder.encode(out);
 	}
 
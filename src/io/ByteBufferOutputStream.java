@@ -0,0 +1,69 @@
+package io;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream that collects what is written to it in a {@link ByteBuffer}, which grows as needed. Unlike a
+ * {@link java.io.ByteArrayOutputStream}, the buffer is handed out without copying, and the stream can be reset and
+ * written again, so that one buffer serves for many rounds of writing.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+	/**
+	 * @param capacity initial size of the buffer, in bytes
+	 */
+	public ByteBufferOutputStream(int capacity) {
+		buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+	}
+
+	// fields
+
+	private ByteBuffer buffer;
+
+	// methods
+
+	@Override
+	public void write(int b) {
+		ensureRemaining(1);
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureRemaining(len);
+		buffer.put(b, off, len);
+	}
+
+	private void ensureRemaining(int n) {
+		if (buffer.remaining() >= n)
+			return;
+		int capacity = Math.max(2 * buffer.capacity(), buffer.position() + n);
+		buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+	}
+
+	/**
+	 * @return the number of bytes written since the last reset
+	 */
+	public int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Returns a view of the bytes written since the last reset, ready to be read. The view shares the buffer, so it
+	 * is only valid until the stream is next written or reset.
+	 * 
+	 * @return the bytes written
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer.duplicate().flip();
+	}
+
+	/**
+	 * Discards everything written, keeping the buffer for reuse.
+	 */
+	public void reset() {
+		buffer.clear();
+	}
+
+}
@@ -4,11 +4,16 @@ import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import javax.imageio.ImageIO;
 
 import canvas.Layer;
+import canvas.Quantizer;
 import canvas.Spritesheet;
 
 public class IOUtil {
@@ -83,13 +88,78 @@ public class IOUtil {
 	 * @param delay time in milliseconds between frames
 	 */
 	public static void saveImagesAsGIF(List<BufferedImage> images, File file, int delay) {
-		var encoder = new AnimatedGifEncoder();
-		encoder.start(file.getAbsolutePath());
-		encoder.setRepeat(0); // play indefinitely
-		encoder.setDelay(delay);
+		saveImagesAsGIF(images, file, delay, null, false);
+	}
+
+	/**
+	 * Saves the given images to the given file as an animated gif, choosing palettes with the given quantizer.
+	 * 
+	 * @param images        the frames, in order
+	 * @param file          the file
+	 * @param delay         time in milliseconds between frames
+	 * @param quantizer     the quantizer, or null to use NeuQuant
+	 * @param globalPalette true to choose one palette for all the frames, false to choose one for each frame
+	 */
+	public static void saveImagesAsGIF(List<BufferedImage> images, File file, int delay, Quantizer quantizer,
+			boolean globalPalette) {
+		List<Supplier<BufferedImage>> frames = new ArrayList<>();
 		for (var im : images)
-			encoder.addFrame(im);
-		encoder.finish();
+			frames.add(() -> im);
+		try {
+			saveFramesAsGIF(frames, file, delay, quantizer, globalPalette, null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Saves the given frames to the given file as an animated gif. Frames are made and encoded in parallel (see
+	 * {@link AnimatedGifEncoder#addFrames(List, IntConsumer, BooleanSupplier)}), and only the changed part of each is
+	 * written. With a global palette, the frames are made twice: once to choose the palette and once to write them, so
+	 * that only a few are in memory at a time. If not every frame is written, the file is deleted.
+	 * 
+	 * @param frames        supplies each frame, in order, on a worker thread; may be invoked twice for each frame
+	 * @param file          the file
+	 * @param delay         time in milliseconds between frames
+	 * @param quantizer     the quantizer, or null to use NeuQuant
+	 * @param globalPalette true to choose one palette for all the frames, false to choose one for each frame
+	 * @param progress      told the number of steps done after each: each frame analyzed for the global palette, if
+	 *                      any, and then each frame written, so twice as many steps as frames with a global palette;
+	 *                      may be null
+	 * @param cancelled     checked before each frame is analyzed or written, to stop early; may be null
+	 * @return true if every frame was written, or false if cancelled or interrupted
+	 * @throws IOException if the file could not be written, or a frame could not be made for an {@link IOException}
+	 */
+	public static boolean saveFramesAsGIF(List<? extends Supplier<BufferedImage>> frames, File file, int delay,
+			Quantizer quantizer, boolean globalPalette, IntConsumer progress, BooleanSupplier cancelled)
+			throws IOException {
+		var encoder = new AnimatedGifEncoder();
+		encoder.setQuantizer(quantizer);
+		encoder.setDifferencing(true);
+		if (!encoder.start(file.getAbsolutePath()))
+			throw new IOException("Could not open file: " + file);
+		boolean ok = false;
+		try {
+			encoder.setRepeat(0); // play indefinitely
+			encoder.setDelay(delay);
+			if (globalPalette && !frames.isEmpty() && !encoder.analyzeFrames(frames, progress, cancelled))
+				return false;
+			int analyzed = globalPalette ? frames.size() : 0;
+			IntConsumer written = progress == null ? null : n -> progress.accept(analyzed + n);
+			if (!encoder.addFrames(frames, written, cancelled))
+				return false;
+			if (!encoder.finish()) // which writes the last frame
+				throw new IOException("Could not write to file: " + file);
+			if (progress != null)
+				progress.accept(analyzed + frames.size());
+			ok = true;
+			return true;
+		} finally {
+			if (!ok) {
+				encoder.abort();
+				file.delete();
+			}
+		}
 	}
 
 	/**
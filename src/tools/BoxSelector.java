@@ -2,6 +2,7 @@ package tools;
 
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
@@ -9,7 +10,7 @@ import java.awt.geom.Point2D;
 import app.Constants;
 import app.Renderable;
 import canvas.Layer;
-import canvas.PixelMask;
+import canvas.RunMask;
 import util.Util;
 
 public class BoxSelector extends Tool implements Renderable {
@@ -22,6 +23,26 @@ public class BoxSelector extends Tool implements Renderable {
 
 	@Override
 	public void renderAt(Graphics2D g, AffineTransform tf) {
+		var box = getBox(tf);
+		g.setColor(Constants.preselectionOutline);
+		g.drawRect(box.x, box.y, box.width, box.height);
+	}
+
+	@Override
+	public Rectangle getBounds(AffineTransform tf) {
+		var box = getBox(tf);
+		box.width++; // drawRect covers one more pixel on the right and bottom
+		box.height++;
+		return box;
+	}
+
+	/**
+	 * Returns the box between the press and drag points, snapped outward to pixel boundaries.
+	 * 
+	 * @param tf transform from pixels to screen
+	 * @return the box, in screen coordinates
+	 */
+	private Rectangle getBox(AffineTransform tf) {
 		AffineTransform tfInverse = null;
 		try {
 			tfInverse = tf.createInverse();
@@ -39,9 +60,7 @@ public class BoxSelector extends Tool implements Renderable {
 		tf.transform(topLeft, topLeft);
 		tf.transform(bottomRight, bottomRight);
 
-		g.setColor(Constants.preselectionOutline);
-		g.drawRect(topLeft.x, topLeft.y, bottomRight.x - topLeft.x, bottomRight.y - topLeft.y);
-
+		return new Rectangle(topLeft.x, topLeft.y, bottomRight.x - topLeft.x, bottomRight.y - topLeft.y);
 	}
 
 	private final Point start = new Point();
@@ -66,11 +85,8 @@ public class BoxSelector extends Tool implements Renderable {
 		Point topLeft = Util.min(startPix, endPix);
 		Point botRight = Util.max(startPix, endPix);
 
-		PixelMask mask = new PixelMask(top.getSize());
-		for (int i = 0; i < mask.getWidth(); i++)
-			for (int j = 0; j < mask.getHeight(); j++)
-				mask.set(i, j, topLeft.x <= i && i <= botRight.x && topLeft.y <= j && j <= botRight.y);
-		cp.select(mask);
+		var box = new Rectangle(topLeft.x, topLeft.y, botRight.x - topLeft.x + 1, botRight.y - topLeft.y + 1);
+		cp.select(RunMask.rectangle(top.getWidth(), top.getHeight(), box));
 
 		cp.removeRenderable(this);
 
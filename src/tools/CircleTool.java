@@ -2,6 +2,7 @@ package tools;
 
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 
 import app.Constants;
@@ -13,7 +14,7 @@ import util.Cache;
 
 public abstract class CircleTool extends Tool implements Renderable {
 
-	public static final Cache<Integer, BitMask> circleMaskCache = new Cache<>(diam -> new CircleMask(diam));
+	public static final Cache<Integer, BitMask> circleMaskCache = new Cache<>(diam -> CircleMask.ofRadius(diam / 2d));
 
 	@Override
 	public ToolResult drag(Layer l, Point pixel, ToolParams params) {
@@ -43,9 +44,19 @@ public abstract class CircleTool extends Tool implements Renderable {
 
 	@Override
 	public void renderAt(Graphics2D g, AffineTransform tf) {
+		BitMask.renderOutline(g, circleMaskCache.get(currentSize), getMaskTransform(tf), Constants.toolOutline);
+	}
+
+	@Override
+	public Rectangle getBounds(AffineTransform tf) {
+		var mask = circleMaskCache.get(currentSize);
+		return getMaskTransform(tf).createTransformedShape(new Rectangle(mask.getSize())).getBounds();
+	}
+
+	private AffineTransform getMaskTransform(AffineTransform tf) {
 		var ttf = AffineTransform.getTranslateInstance(currentPixel.x - currentSize / 2,
 				currentPixel.y - currentSize / 2);
 		ttf.preConcatenate(tf);
-		BitMask.renderOutline(g, circleMaskCache.get(currentSize), ttf, Constants.toolOutline);
+		return ttf;
 	}
 }
@@ -3,13 +3,13 @@ package tools;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.AffineTransform;
-import java.util.ArrayList;
 
 import app.Constants;
 import app.Renderable;
 import canvas.BitMask;
 import canvas.Layer;
-import canvas.PixelMask;
+import canvas.RegionMask;
+import util.RGBSet;
 import util.Util;
 
 public class ColorSelector extends Tool implements Renderable {
@@ -29,8 +29,8 @@ public class ColorSelector extends Tool implements Renderable {
 
 	// Fields
 
-	private final ArrayList<Integer> rgbsInDrag = new ArrayList<>();
-	private PixelMask selectionMask;
+	private final RGBSet rgbsInDrag = new RGBSet();
+	private RegionMask selectionMask;
 
 	// Internal Methods
 
@@ -55,8 +55,9 @@ public class ColorSelector extends Tool implements Renderable {
 			return null;
 
 		// add the region to the mask of pixels to select
-		PixelMask newRegion = top.getMonochromeRegion(pixel, currentSize / 2d, rgbsInDrag);
-		selectionMask = selectionMask == null ? newRegion : PixelMask.or(selectionMask, newRegion, new Point());
+		RegionMask newRegion = top.getMonochromeRegion(pixel, currentSize / 2d, rgbsInDrag);
+		selectionMask = selectionMask == null ? RegionMask.compact(newRegion)
+				: RegionMask.or(selectionMask, newRegion, new Point());
 		params.app().canvasPanel.addRenderable(this);
 		return new ToolResult(REPAINT);
 	}
@@ -1,8 +1,8 @@
 package tools;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 
+import canvas.Layer;
 import util.Util;
 
 public class Eraser extends StrokeBrush {
@@ -14,10 +14,10 @@ public class Eraser extends StrokeBrush {
 	}
 
 	@Override
-	void applyBrushToPoint(BufferedImage im, Point p, ToolParams params) {
-		int rgb = im.getRGB(p.x, p.y);
+	void applyBrushToPoint(Layer l, Point p, ToolParams params) {
+		int rgb = l.getRGB(p.x, p.y);
 		int a = Util.a(rgb) * (maxStrength - currentStrength) / maxStrength;
-		im.setRGB(p.x, p.y, rgb & 0x00ffffff | a << 24);
+		l.setRGB(p.x, p.y, rgb & 0x00ffffff | a << 24);
 	}
 
 }
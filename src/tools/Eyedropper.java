@@ -23,7 +23,8 @@ public class Eyedropper extends CircleTool {
 	 */
 	public static Color getAverageColor(Layer l, Point pixel, int diameter) {
 		ArrayList<Color> colors = new ArrayList<>(diameter * diameter);
-		l.doThingInCircle(pixel, diameter / 2d, (im, pix) -> colors.add(new Color(im.getRGB(pix.x, pix.y), true)));
+		l.readThingInCircle(pixel, diameter / 2d,
+				(layer, pix) -> colors.add(new Color(layer.getRGB(pix.x, pix.y), true)));
 		int rSum = 0, gSum = 0, bSum = 0, aSum = 0;
 		for (Color c : colors) {
 			rSum += c.getRed() * c.getAlpha();
@@ -1,7 +1,8 @@
 package tools;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
+
+import canvas.Layer;
 
 public class HueChanger extends StrokeBrush {
 
@@ -11,8 +12,8 @@ public class HueChanger extends StrokeBrush {
 	}
 
 	@Override
-	void applyBrushToPoint(BufferedImage im, Point p, ToolParams params) {
-		int imrgb = im.getRGB(p.x, p.y);
+	void applyBrushToPoint(Layer l, Point p, ToolParams params) {
+		int imrgb = l.getRGB(p.x, p.y);
 		int imr = imrgb >> 16 & 0xff;
 		int img = imrgb >> 8 & 0xff;
 		int imb = imrgb & 0xff;
@@ -31,7 +32,7 @@ public class HueChanger extends StrokeBrush {
 
 		imrgb = imrgb & 0xff000000 | imr << 16 | img << 8 | imb;
 
-		im.setRGB(p.x, p.y, imrgb);
+		l.setRGB(p.x, p.y, imrgb);
 	}
 
 }
@@ -13,9 +13,9 @@ public class Marker extends OPPBrush {
 		int rgbNoA = params.color().getRGB() & 0x00ffffff;
 		double rSquared = Math.pow(currentSize / 2d, 2) + 2d / currentSize; // last term is so that 2-diameter circle
 																			// works
-		l.doThingInCircle(pixel, currentSize / 2d, (im, p) -> {
+		l.doThingInCircle(pixel, currentSize / 2d, (layer, p) -> {
 			int a = (int) Math.max(0, maxA * (rSquared - Util.distSq(pixel, p)) / rSquared);
-			im.setRGB(p.x, p.y, Pencil.mixRGB(im.getRGB(p.x, p.y), rgbNoA | a << 24));
+			layer.setRGB(p.x, p.y, Pencil.mixRGB(layer.getRGB(p.x, p.y), rgbNoA | a << 24));
 		});
 	}
 
@@ -1,8 +1,8 @@
 package tools;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 
+import canvas.Layer;
 import util.Util;
 
 public class Pencil extends StrokeBrush {
@@ -25,9 +25,9 @@ public class Pencil extends StrokeBrush {
 	}
 
 	@Override
-	void applyBrushToPoint(BufferedImage im, Point p, ToolParams params) {
-		int rgb = im.getRGB(p.x, p.y);
-		im.setRGB(p.x, p.y, mixRGB(rgb, params.color().getRGB() & 0x00ffffff | currentStrength << 24));
+	void applyBrushToPoint(Layer l, Point p, ToolParams params) {
+		int rgb = l.getRGB(p.x, p.y);
+		l.setRGB(p.x, p.y, mixRGB(rgb, params.color().getRGB() & 0x00ffffff | currentStrength << 24));
 	}
 
 }
@@ -1,8 +1,8 @@
 package tools;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 
+import canvas.Layer;
 import util.Util;
 
 public class Shader extends StrokeBrush {
@@ -20,8 +20,8 @@ public class Shader extends StrokeBrush {
 	private final int targetShade;
 
 	@Override
-	void applyBrushToPoint(BufferedImage im, Point p, ToolParams params) {
-		int rgb = im.getRGB(p.x, p.y);
+	void applyBrushToPoint(Layer l, Point p, ToolParams params) {
+		int rgb = l.getRGB(p.x, p.y);
 		int oldr = Util.r(rgb), oldg = Util.g(rgb), oldb = Util.b(rgb);
 		float oldShade = Math.max((oldr + oldg + oldb) / 3f, .125f);
 
@@ -32,7 +32,7 @@ public class Shader extends StrokeBrush {
 		int g = roundNBound(oldg * newShade / oldShade);
 		int b = roundNBound(oldb * newShade / oldShade);
 
-		im.setRGB(p.x, p.y, Util.argb(Util.a(rgb), r, g, b));
+		l.setRGB(p.x, p.y, Util.argb(Util.a(rgb), r, g, b));
 	}
 
 	private static int roundNBound(float c) {
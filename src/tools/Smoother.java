@@ -2,7 +2,6 @@ package tools;
 
 import java.awt.Color;
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 
 import canvas.Layer;
 
@@ -20,17 +19,17 @@ public class Smoother extends OPPBrush {
 	@Override
 	protected void drawStroke(Layer l, Point pixel, ToolParams params) {
 		Color c = Eyedropper.getAverageColor(l, pixel, currentSize);
-		l.doThingInCircle(pixel, currentSize / 2d, (im, p) -> bringToColor(im, p, c));
+		l.doThingInCircle(pixel, currentSize / 2d, (layer, p) -> bringToColor(layer, p, c));
 	}
 
-	private void bringToColor(BufferedImage im, Point p, Color c) {
+	private void bringToColor(Layer l, Point p, Color c) {
 		float w = (float) currentStrength / maxStrength;
-		int rgb = im.getRGB(p.x, p.y);
+		int rgb = l.getRGB(p.x, p.y);
 		int a = (rgb >>> 24 & 0xff); // it is annoying when alpha is mixed
 		int r = Math.round((rgb >>> 16 & 0xff) * (1 - w) + c.getRed() * w);
 		int g = Math.round((rgb >>> 8 & 0xff) * (1 - w) + c.getGreen() * w);
 		int b = Math.round((rgb >>> 0 & 0xff) * (1 - w) + c.getBlue() * w);
-		im.setRGB(p.x, p.y, a << 24 | r << 16 | g << 8 | b);
+		l.setRGB(p.x, p.y, a << 24 | r << 16 | g << 8 | b);
 	}
 
 }
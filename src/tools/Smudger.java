@@ -23,23 +23,23 @@ public class Smudger extends OPPBrush {
 	protected void drawStroke(Layer l, Point pixel, ToolParams params) {
 		if (!rgbs.isEmpty()) {
 			// merge colors, and save the new colors
-			l.doThingInCircle(pixel, currentSize / 2d, (im, p) -> {
+			l.doThingInCircle(pixel, currentSize / 2d, (layer, p) -> {
 				Point prel = Util.difference(p, pixel);
-				int rgb1 = im.getRGB(p.x, p.y);
+				int rgb1 = layer.getRGB(p.x, p.y);
 				if (rgbs.containsKey(prel)) {
 					int rgb2 = rgbs.get(prel);
 					// reduce alpha of rgb2 according to current strength
 					rgb2 = (rgb2 & 0x00ffffff) | (Util.a(rgb2) * currentStrength / maxStrength << 24);
 
 					int rgb = Pencil.mixRGB(rgb1, rgb2);
-					im.setRGB(p.x, p.y, rgb);
+					layer.setRGB(p.x, p.y, rgb);
 					rgbs.put(prel, rgb);
 				}
 			});
 		} else {
 			// just save the colors
-			l.doThingInCircle(pixel, currentSize / 2d,
-					(im, p) -> rgbs.put(Util.difference(p, pixel), im.getRGB(p.x, p.y)));
+			l.readThingInCircle(pixel, currentSize / 2d,
+					(layer, p) -> rgbs.put(Util.difference(p, pixel), layer.getRGB(p.x, p.y)));
 		}
 	}
 
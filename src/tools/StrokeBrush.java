@@ -1,28 +1,42 @@
 package tools;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
-import java.util.HashSet;
 
 import canvas.Layer;
+import canvas.PixelMask;
 
 public abstract class StrokeBrush extends Brush {
 
-	private final HashSet<Point> pixelsInStroke = new HashSet<>(); // so same pixels are not doubly affected
+	private PixelMask pixelsInStroke = null; // so same pixels are not doubly affected
 
 	@Override
 	public ToolResult press(Layer l, Point pixel, ToolParams params) {
-		pixelsInStroke.clear();
+		ensureMask(l).clear();
 		return super.press(l, pixel, params);
 	}
 
 	@Override
 	protected void applyBrush(Layer l, Point pixel, ToolParams params) {
-		l.doThingInCircle(pixel, currentSize / 2d, (im, p) -> {
-			if (pixelsInStroke.add(new Point(p)))
-				applyBrushToPoint(im, p, params);
+		ensureMask(l);
+		l.doThingInCircle(pixel, currentSize / 2d, (layer, p) -> {
+			if (!pixelsInStroke.get(p.x, p.y)) {
+				pixelsInStroke.set(p.x, p.y, true);
+				applyBrushToPoint(layer, p, params);
+			}
 		});
 	}
 
-	abstract void applyBrushToPoint(BufferedImage im, Point p, ToolParams params);
+	/**
+	 * Returns the mask of pixels in the stroke, made anew if there is none yet or it does not fit the given layer.
+	 * 
+	 * @param l the layer being drawn on
+	 * @return the mask
+	 */
+	private PixelMask ensureMask(Layer l) {
+		if (pixelsInStroke == null || pixelsInStroke.width != l.getWidth() || pixelsInStroke.height != l.getHeight())
+			pixelsInStroke = new PixelMask(l.getSize());
+		return pixelsInStroke;
+	}
+
+	abstract void applyBrushToPoint(Layer l, Point p, ToolParams params);
 }
@@ -21,7 +21,7 @@ public abstract class Tool {
 
 		sizeName = "Diameter";
 		minSize = 1;
-		maxSize = 64;
+		maxSize = 256;
 		currentSize = 1;
 		hasSize = true;
 		enableSize = true;
@@ -1,9 +1,10 @@
 package tools;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 import java.util.Random;
 
+import canvas.Layer;
+
 public class Warper extends StrokeBrush {
 
 	public Warper() {
@@ -17,8 +18,8 @@ public class Warper extends StrokeBrush {
 	private final Random random = new Random();
 
 	@Override
-	void applyBrushToPoint(BufferedImage im, Point p, ToolParams params) {
-		int rgb = im.getRGB(p.x, p.y);
+	void applyBrushToPoint(Layer l, Point p, ToolParams params) {
+		int rgb = l.getRGB(p.x, p.y);
 
 		boolean decrease = random.nextBoolean(); // whether to decrease or increase
 		double factor = 1 + Math.pow(random.nextDouble() * currentStrength / maxStrength, 1);
@@ -35,7 +36,7 @@ public class Warper extends StrokeBrush {
 		}
 
 		rgb = (rgb & 0xff000000) | r << 16 | g << 8 | b;
-		im.setRGB(p.x, p.y, rgb);
+		l.setRGB(p.x, p.y, rgb);
 	}
 
 }
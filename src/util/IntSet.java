@@ -0,0 +1,96 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints, stored in an open-addressing hash table with linear probing so that no value is ever boxed.
+ */
+public class IntSet {
+
+	private static final int EMPTY = 0; // marks an empty slot; whether 0 itself is in the set is tracked separately
+
+	public IntSet() {
+		table = new int[8];
+	}
+
+	// fields
+
+	private int[] table; // length is a power of 2, and at most half full
+	private int size = 0; // not counting 0
+	private boolean hasZero = false;
+
+	// methods
+
+	/**
+	 * Adds the given value to this set.
+	 * 
+	 * @param value the value
+	 * @return whether the value was not already in the set
+	 */
+	public boolean add(int value) {
+		if (value == EMPTY) {
+			boolean added = !hasZero;
+			hasZero = true;
+			return added;
+		}
+		int i = indexOf(table, value);
+		if (table[i] == value)
+			return false;
+		table[i] = value;
+		if (++size * 2 > table.length)
+			rehash(table.length * 2);
+		return true;
+	}
+
+	public boolean contains(int value) {
+		return value == EMPTY ? hasZero : table[indexOf(table, value)] == value;
+	}
+
+	public int size() {
+		return size + (hasZero ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(table, EMPTY);
+		size = 0;
+		hasZero = false;
+	}
+
+	/**
+	 * @return the values in this set, in no particular order
+	 */
+	public int[] toArray() {
+		int[] values = new int[size()];
+		int n = 0;
+		if (hasZero)
+			values[n++] = 0;
+		for (int v : table)
+			if (v != EMPTY)
+				values[n++] = v;
+		return values;
+	}
+
+	/**
+	 * Returns the slot holding the given value, or the empty slot where it would go.
+	 */
+	private static int indexOf(int[] table, int value) {
+		int mask = table.length - 1;
+		int i = (value * 0x9E3779B9 >>> 16 ^ value * 0x9E3779B9) & mask; // spread the bits before masking
+		while (table[i] != EMPTY && table[i] != value)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void rehash(int length) {
+		int[] old = table;
+		table = new int[length];
+		for (int v : old)
+			if (v != EMPTY)
+				table[indexOf(table, v)] = v;
+	}
+
+}
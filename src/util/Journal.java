@@ -0,0 +1,195 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A file of int arrays, accessed through memory-mapped segments. Data written to a journal lives in the file (and the
+ * OS page cache) rather than in the Java heap. Arrays are appended, and freed once no longer needed; a segment whose
+ * arrays are all freed is unmapped and written again, and freed segments at the end of the file are cut off it. The
+ * methods may be called from any thread.
+ */
+public class Journal implements Closeable {
+
+	/**
+	 * Size of each memory-mapped segment of the file, in bytes. No single array may be larger than this.
+	 */
+	public static final int SEGMENT_BYTES = 16 << 20;
+
+	private static final int SEGMENT_INTS = SEGMENT_BYTES / Integer.BYTES;
+
+	/**
+	 * Creates a journal in a temporary file that is deleted when the journal is closed, or else when the program
+	 * exits.
+	 * 
+	 * @return the journal
+	 */
+	public static Journal createTemp() {
+		try {
+			File file = File.createTempFile("pixel-editor-", ".journal");
+			file.deleteOnExit();
+			return new Journal(file, true);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public Journal(File file) throws IOException {
+		this(file, false);
+	}
+
+	private Journal(File file, boolean deleteOnClose) throws IOException {
+		this.file = file;
+		this.deleteOnClose = deleteOnClose;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	// fields
+
+	private final File file;
+	private final boolean deleteOnClose;
+	private final FileChannel channel;
+	private final ArrayList<IntBuffer> segments = new ArrayList<>(); // null where a segment is freed
+	private final ArrayList<Integer> liveInts = new ArrayList<>(); // number of ints not yet freed in each segment
+	private int writeSegment = -1; // index of the segment being appended to, or -1 before the first
+	private int writePos = 0; // position, in ints, within the segment being appended to
+	private boolean closed = false;
+
+	// methods
+
+	/**
+	 * Writes the given array to the journal, after the last array written if it fits in the same segment, and
+	 * otherwise at the start of a freed segment or a new one at the end of the file.
+	 * 
+	 * @param data the array
+	 * @return the position of the array in the journal, to be passed to {@link #read(long, int[])} and
+	 *         {@link #free(long, int)}
+	 */
+	public synchronized long append(int[] data) {
+		if (data.length > SEGMENT_INTS)
+			throw new IllegalArgumentException("Array of length %d does not fit in a segment".formatted(data.length));
+		if (closed)
+			throw new IllegalStateException("Journal is closed");
+
+		if (writeSegment < 0 || writePos + data.length > SEGMENT_INTS)
+			startSegment();
+
+		long position = (long) writeSegment * SEGMENT_INTS + writePos;
+		segments.get(writeSegment).put(writePos, data);
+		writePos += data.length;
+		liveInts.set(writeSegment, liveInts.get(writeSegment) + data.length);
+		return position;
+	}
+
+	/**
+	 * Reads an array previously written with {@link #append(int[])}, and not yet freed.
+	 * 
+	 * @param position position returned by {@link #append(int[])}
+	 * @param dst      array to read into; its length determines how many ints are read
+	 */
+	public synchronized void read(long position, int[] dst) {
+		segments.get((int) (position / SEGMENT_INTS)).get((int) (position % SEGMENT_INTS), dst);
+	}
+
+	/**
+	 * Frees an array previously written with {@link #append(int[])}, which may not be read afterward. Once every
+	 * array in a segment is freed, the segment is unmapped, to be reused for later arrays; if it is at the end of the
+	 * file, the file is cut short. Does nothing if the journal is closed.
+	 * 
+	 * @param position position returned by {@link #append(int[])}
+	 * @param length   length of the array
+	 */
+	public synchronized void free(long position, int length) {
+		if (closed)
+			return;
+		int segment = (int) (position / SEGMENT_INTS);
+		int live = liveInts.get(segment) - length;
+		liveInts.set(segment, live);
+		if (live > 0)
+			return;
+		if (segment == writeSegment) {
+			writePos = 0; // write over it from the start
+			return;
+		}
+		segments.set(segment, null); // unmapped once collected, as there is no other way to unmap
+		truncate();
+	}
+
+	/**
+	 * @return the number of bytes of file mapped by this journal
+	 */
+	public synchronized long getMappedBytes() {
+		long n = 0;
+		for (var segment : segments)
+			if (segment != null)
+				n += SEGMENT_BYTES;
+		return n;
+	}
+
+	/**
+	 * Makes the first freed segment, or else a new one at the end of the file, the segment being appended to.
+	 */
+	private void startSegment() {
+		int i = segments.indexOf(null);
+		if (i < 0) {
+			i = segments.size();
+			segments.add(null);
+			liveInts.add(0);
+		}
+		try {
+			var buffer = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_BYTES, SEGMENT_BYTES);
+			segments.set(i, buffer.order(ByteOrder.nativeOrder()).asIntBuffer());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		int previous = writeSegment;
+		writeSegment = i;
+		writePos = 0;
+		if (previous >= 0 && liveInts.get(previous) == 0) { // every array in it was freed while it was being written
+			segments.set(previous, null);
+			truncate();
+		}
+	}
+
+	/**
+	 * Removes the freed segments at the end of the file, and cuts the file short after the rest.
+	 */
+	private void truncate() {
+		int n = segments.size();
+		while (n > 0 && segments.get(n - 1) == null) {
+			n--;
+			segments.remove(n);
+			liveInts.remove(n);
+		}
+		try {
+			if (channel.size() > (long) n * SEGMENT_BYTES)
+				channel.truncate((long) n * SEGMENT_BYTES);
+		} catch (IOException e) {
+			e.printStackTrace(); // the space is reused all the same
+		}
+	}
+
+	/**
+	 * Closes the file, and deletes it if it is temporary. Nothing may be read from the journal afterward.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		segments.clear();
+		liveInts.clear();
+		channel.close();
+		if (deleteOnClose)
+			file.delete();
+	}
+
+}
@@ -0,0 +1,29 @@
+package util;
+
+/**
+ * A set of argb values in which every fully transparent color is the same color, as in
+ * {@link Util#rgbEqual(int, int)}.
+ */
+public class RGBSet extends IntSet {
+
+	/**
+	 * Returns the value that stands for the given color in the set: the color itself, or 0 if it is fully transparent.
+	 * 
+	 * @param rgb an argb value
+	 * @return see above
+	 */
+	public static int canonical(int rgb) {
+		return Util.getAlpha(rgb) == 0 ? 0 : rgb;
+	}
+
+	@Override
+	public boolean add(int rgb) {
+		return super.add(canonical(rgb));
+	}
+
+	@Override
+	public boolean contains(int rgb) {
+		return super.contains(canonical(rgb));
+	}
+
+}
@@ -1,31 +1,100 @@
 package util;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 public class StateLog<T> {
 
+	/**
+	 * Measures how much memory states retain.
+	 */
+	@FunctionalInterface
+	public static interface Weigher<T> {
+		/**
+		 * Returns the number of bytes retained by the given state that are not shared with the previous state.
+		 * 
+		 * @param state    a state
+		 * @param previous the state before it in the log, or null if it is the oldest state
+		 * @return bytes retained only by the state
+		 */
+		long weigh(T state, T previous);
+	}
+
+	/**
+	 * Moves states out of the heap.
+	 */
+	@FunctionalInterface
+	public static interface Spiller<T> {
+		/**
+		 * Moves as much of the given state out of the heap as possible. The state must still be restorable afterward.
+		 * Anything shared with the kept states should stay in the heap.
+		 * 
+		 * @param state a state
+		 * @param kept  the states that stay in the heap
+		 * @return whether the state was spilled; if not, it is still counted toward the byte limit
+		 */
+		boolean spill(T state, List<T> kept);
+	}
+
 	public StateLog(int maxNumStates) {
+		this(maxNumStates, 0, 1, null);
+	}
+
+	/**
+	 * Creates a log that evicts its oldest states when it holds more than the given number of states, or when the
+	 * states retain more than the given number of bytes. Eviction by bytes never leaves fewer than the given minimum
+	 * number of states.
+	 * 
+	 * @param maxNumStates maximum number of states, or less than 1 for no limit
+	 * @param maxBytes     maximum number of retained bytes, or less than 1 for no limit
+	 * @param minNumStates number of states kept regardless of maxBytes (at least 1)
+	 * @param weigher      measures retained bytes, or null to only limit the number of states
+	 */
+	public StateLog(int maxNumStates, long maxBytes, int minNumStates, Weigher<T> weigher) {
 		currentState = -1;
 		this.maxNumStates = maxNumStates;
+		this.maxBytes = maxBytes;
+		this.minNumStates = Math.max(1, minNumStates);
+		this.weigher = weigher;
 	}
 
-	private final LinkedList<T> states = new LinkedList<>();
+	private static class Entry<T> {
+		Entry(T state) {
+			this.state = state;
+		}
+
+		final T state;
+		long bytes;
+		boolean spilled = false;
+	}
+
+	private final LinkedList<Entry<T>> states = new LinkedList<>();
 	private int currentState;
 	private int maxNumStates;
+	private long maxBytes;
+	private final int minNumStates;
+	private final Weigher<T> weigher;
+	private long totalBytes = 0;
+	private int numStatesInHeap = 0;
+	private Spiller<T> spiller = null;
 
 	public void saveState(T state) {
 		// delete states after current state
 		while (states.size() - 1 > currentState)
-			states.removeLast();
+			totalBytes -= states.removeLast().bytes;
 
-		states.add(state);
+		var entry = new Entry<>(state);
+		weigh(entry, states.isEmpty() ? null : states.getLast());
+		states.add(entry);
 		currentState++;
 
 		removeOldStates();
+		spillOldStates();
 	}
 
 	public T getState() {
-		return states.get(currentState);
+		return states.get(currentState).state;
 	}
 
 	/**
@@ -62,15 +131,92 @@ public class StateLog<T> {
 		return currentState < states.size() - 1;
 	}
 
+	/**
+	 * @return the number of states in the log
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	/**
+	 * @return the number of bytes retained by the states in the log, as measured by its weigher
+	 */
+	public long getRetainedBytes() {
+		return totalBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the states may retain, evicting old states if necessary.
+	 * 
+	 * @param maxBytes the limit, or less than 1 for no limit
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		removeOldStates();
+	}
+
+	/**
+	 * Makes the log spill all but the given number of most recent states out of the heap after each save. Spilled
+	 * states no longer count toward the byte limit, except for whatever they share with the states still in the heap.
+	 * 
+	 * @param numStatesInHeap number of recent states to keep in the heap (at least 1)
+	 * @param spiller         moves states out of the heap, or null to keep every state in the heap
+	 */
+	public void setSpiller(int numStatesInHeap, Spiller<T> spiller) {
+		this.numStatesInHeap = Math.max(1, numStatesInHeap);
+		this.spiller = spiller;
+		spillOldStates();
+	}
+
+	private void weigh(Entry<T> entry, Entry<T> previous) {
+		totalBytes -= entry.bytes;
+		// whatever a spilled state still holds in the heap is shared with, and counted by, later states
+		if (weigher == null || entry.spilled)
+			entry.bytes = 0;
+		else
+			entry.bytes = weigher.weigh(entry.state, previous == null || previous.spilled ? null : previous.state);
+		totalBytes += entry.bytes;
+	}
+
+	private boolean isOverLimit() {
+		if (maxNumStates > 0 && states.size() > maxNumStates)
+			return true;
+		return maxBytes > 0 && totalBytes > maxBytes && states.size() > minNumStates;
+	}
+
 	private void removeOldStates() {
-		if (maxNumStates < 1)
-			return;
-		while (states.size() > maxNumStates) {
-			states.removeFirst();
+		while (currentState > 0 && isOverLimit()) { // never remove the current state
+			totalBytes -= states.removeFirst().bytes;
 			currentState--;
+
+			// the new oldest state no longer shares anything with a previous state
+			weigh(states.getFirst(), null);
 		}
 		if (currentState < 0)
 			throw new Error("removed current state somehow");
 	}
 
+	private void spillOldStates() {
+		int firstInHeap = states.size() - numStatesInHeap;
+		if (spiller == null || firstInHeap <= 0 || states.get(firstInHeap - 1).spilled)
+			return;
+
+		var kept = new ArrayList<T>(numStatesInHeap);
+		for (var entry : states.subList(firstInHeap, states.size()))
+			kept.add(entry.state);
+
+		for (var entry : states.subList(0, firstInHeap)) {
+			if (!entry.spilled && spiller.spill(entry.state, kept)) {
+				entry.spilled = true;
+				weigh(entry, null);
+			}
+		}
+		// the oldest state in the heap no longer shares anything with an unspilled previous state
+		weigh(states.get(firstInHeap), null);
+	}
+
 }